@@ -22,45 +22,77 @@
 
 package io.github.axolotlclient.waypoints.map;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import com.mojang.blaze3d.platform.NativeImage;
 import io.github.axolotlclient.bridge.render.AxoRenderContext;
 import io.github.axolotlclient.waypoints.AxolotlClientWaypoints;
 import io.github.axolotlclient.waypoints.AxolotlClientWaypointsCommon;
 import io.github.axolotlclient.waypoints.HudCreator;
+import io.github.axolotlclient.waypoints.map.util.DirtyColumns;
+import io.github.axolotlclient.waypoints.map.util.EdgePrefetcher;
+import io.github.axolotlclient.waypoints.map.util.MapColumnCache;
+import io.github.axolotlclient.waypoints.map.util.MapColumnSampler;
+import io.github.axolotlclient.waypoints.map.util.MapFramebuffer;
+import io.github.axolotlclient.waypoints.map.util.MapOverlay;
+import io.github.axolotlclient.waypoints.map.util.MapRasterizer;
+import io.github.axolotlclient.waypoints.map.util.MapSnapshot;
+import io.github.axolotlclient.waypoints.map.util.MapTextures;
 import io.github.axolotlclient.waypoints.util.ARGB;
 import io.github.axolotlclient.waypoints.waypoints.Waypoint;
+import lombok.extern.slf4j.Slf4j;
 import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.multiplayer.ClientLevel;
 import net.minecraft.client.gui.screens.inventory.EffectRenderingInventoryScreen;
-import net.minecraft.client.renderer.BiomeColors;
 import net.minecraft.client.renderer.texture.DynamicTexture;
-import net.minecraft.core.BlockPos;
-import net.minecraft.core.Direction;
-import net.minecraft.core.SectionPos;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.util.Mth;
-import net.minecraft.world.level.block.Blocks;
-import net.minecraft.world.level.block.state.BlockState;
-import net.minecraft.world.level.chunk.ChunkAccess;
-import net.minecraft.world.level.chunk.ChunkStatus;
-import net.minecraft.world.level.levelgen.Heightmap;
-import net.minecraft.world.level.material.FluidState;
-import net.minecraft.world.level.material.MapColor;
 import org.joml.Vector3f;
 
+@Slf4j
 public class Minimap extends MinimapCommon {
 
 	private static final ResourceLocation texLocation = AxolotlClientWaypoints.rl("minimap");
 	public static final ResourceLocation arrowLocation = AxolotlClientWaypoints.rl("textures/gui/sprites/arrow.png");
-	private final NativeImage pixels = new NativeImage(viewDistance, viewDistance, false);
+	private static final ExecutorService RASTER_WORKER = Executors.newSingleThreadExecutor(r -> {
+		var thread = new Thread(r, "Minimap Rasterizer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private NativeImage pixels = new NativeImage(viewDistance, viewDistance, false);
+	private MapFramebuffer framebuffer = new MapFramebuffer(viewDistance, viewDistance);
+	private final MapColumnSampler sampler = new MapColumnSampler();
+	private final EdgePrefetcher prefetcher = new EdgePrefetcher();
+	private MapColumnCache.ChunkColumns[] drawnChunks = new MapColumnCache.ChunkColumns[(viewDistance >> (4 - MAX_ZOOM_OUT)) * (viewDistance >> (4 - MAX_ZOOM_OUT))];
+	private int[] drawnRevisions = new int[drawnChunks.length];
+	private final Set<Long> pendingChunks = new HashSet<>(), pendingSamples = new HashSet<>();
+	private int workGeneration;
+	private int[] frontBuffer = new int[viewDistance * viewDistance], backBuffer = new int[viewDistance * viewDistance];
+	private CompletableFuture<RasterFrame> pendingFrame;
+	private long ticks, displayedTick;
 	public long updateDuration = -1;
 	private DynamicTexture tex;
 	private int mapCenterX, mapCenterZ;
+	private ClientLevel lastLevel;
+	private int lastCaveY;
+	private boolean viewValid, lastBiomeBlending;
 	private boolean usingHud;
 	public boolean allowCaves = true;
 
 	private final Minecraft minecraft = Minecraft.getInstance();
+	private final MapOverlay overlay = new MapOverlay(label -> minecraft.font.width(label));
+	private List<Waypoint> waypoints = List.of();
+
+	private record RasterFrame(int centerX, int centerZ, int zoom, long tick, long duration, MapSnapshot snapshot) {
+	}
 
 	public void init() {
 		super.init();
@@ -76,12 +108,36 @@ public boolean isEnabled() {
 	}
 
 	public void setup() {
-		minecraft.getTextureManager().register(texLocation, tex = new DynamicTexture(pixels));
-		pixels.fillRect(0, 0, pixels.getWidth(), pixels.getHeight(), ARGB.opaque(0));
+		createTexture();
 		this.x = minecraft.getWindow().getWidth() - size - 10;
 		this.y = 10;
 	}
 
+	private void createTexture() {
+		minecraft.getTextureManager().register(texLocation, tex = new DynamicTexture(pixels));
+		pixels.fillRect(0, 0, pixels.getWidth(), pixels.getHeight(), ARGB.opaque(0));
+		framebuffer.fill(ARGB.opaque(0));
+	}
+
+	/**
+	 * Reallocates the texture and all buffers for another view distance. The view is drawn from scratch afterwards.
+	 */
+	private void resize(int viewDistance) {
+		this.viewDistance = viewDistance;
+		dirtyColumns = new DirtyColumns(viewDistance);
+		drawnChunks = new MapColumnCache.ChunkColumns[(viewDistance >> (4 - MAX_ZOOM_OUT)) * (viewDistance >> (4 - MAX_ZOOM_OUT))];
+		drawnRevisions = new int[drawnChunks.length];
+		frontBuffer = new int[viewDistance * viewDistance];
+		backBuffer = new int[viewDistance * viewDistance];
+		// a frame that is still being drawn has the old size
+		pendingFrame = null;
+		viewValid = false;
+		pixels = new NativeImage(viewDistance, viewDistance, false);
+		framebuffer = new MapFramebuffer(viewDistance, viewDistance);
+		// registering the new texture closes the old one along with its image
+		createTexture();
+	}
+
 	public void renderMapOverlay(GuiGraphics guiGraphics, float delta) {
 		if (usingHud) {
 			return;
@@ -109,6 +165,7 @@ public void renderMap(GuiGraphics guiGraphics) {
 		if (!isEnabled()) {
 			return;
 		}
+		MapTextures.upload(tex, framebuffer);
 		guiGraphics.pose().pushPose();
 		{
 			var vec1 = guiGraphics.pose().last().pose().transformPosition(x, y, 0, new Vector3f());
@@ -122,12 +179,18 @@ public void renderMap(GuiGraphics guiGraphics) {
 			}
 			guiGraphics.pose().scale((float) Math.sqrt(2), (float) Math.sqrt(2), 1);
 			guiGraphics.pose().scale(mapScale.get(), mapScale.get(), 1);
-			guiGraphics.pose().translate(-radius, -radius, 0);
+			guiGraphics.pose().scale((float) size / resolution, (float) size / resolution, 1);
+			guiGraphics.pose().translate(-viewDistance / 2f, -viewDistance / 2f, 0);
 			float offX, offZ;
-			offX = -(float) (minecraft.player.getX() - mapCenterX);
-			offZ = -(float) (minecraft.player.getZ() - mapCenterZ);
+			offX = -(float) (minecraft.player.getX() / (1 << zoom) - mapCenterX);
+			offZ = -(float) (minecraft.player.getZ() / (1 << zoom) - mapCenterZ);
 			guiGraphics.pose().translate(offX, offZ, 0);
-			guiGraphics.blit(texLocation, 0, 0, 0, 0, pixels.getWidth(), pixels.getHeight(), size, size);
+			int texX = (mapCenterX - viewDistance / 2) & (viewDistance - 1);
+			int texZ = (mapCenterZ - viewDistance / 2) & (viewDistance - 1);
+			blitRing(guiGraphics, 0, 0, texX, texZ, viewDistance - texX, viewDistance - texZ);
+			blitRing(guiGraphics, viewDistance - texX, 0, 0, texZ, texX, viewDistance - texZ);
+			blitRing(guiGraphics, 0, viewDistance - texZ, texX, 0, viewDistance - texX, texZ);
+			blitRing(guiGraphics, viewDistance - texX, viewDistance - texZ, 0, 0, texX, texZ);
 			guiGraphics.pose().popPose();
 			guiGraphics.disableScissor();
 		}
@@ -135,37 +198,23 @@ public void renderMap(GuiGraphics guiGraphics) {
 		if (minimapOutline.get() && !usingHud) {
 			guiGraphics.renderOutline(x, y, size, size, outlineColor.get().toInt());
 		}
+		overlay.begin(x, y, size, mapScale.get() * (float) size / resolution, zoom, lockMapToNorth.get() ? 0 : (float) -Math.toRadians(minecraft.player.getVisualRotationYInDegrees() + 180));
 		if (showWaypoints.get()) {
 			renderMapWaypoints(guiGraphics);
 		}
 		if (showCardinalDirections.get()) {
-			Vector3f pos = new Vector3f();
-			guiGraphics.pose().pushPose();
-			var directions = new String[]{"N", "W", "E", "S"};
-			for (int i : new int[]{-2, 1, 2, -1}) {
-				var label = directions[i < 0 ? i + 2 : i + 1];
-				var labelWidth = minecraft.font.width(label);
-				var labelHeight = minecraft.font.lineHeight;
-				guiGraphics.pose().pushPose();
-				guiGraphics.pose().setIdentity();
-				guiGraphics.pose().translate(x + radius, y + radius, 0);
-				if (!lockMapToNorth.get()) {
-					guiGraphics.pose().last().pose().rotate((float) -(((minecraft.player.getVisualRotationYInDegrees() + 180) / 180) * Math.PI), 0, 0, 1);
-				}
-				guiGraphics.pose().translate((i % 2) * size, ((int) (i / 2f)) * size, 0);
-				pos.zero();
-				guiGraphics.pose().last().pose().transformPosition(pos);
-				guiGraphics.pose().popPose();
-				pos.x = Mth.clamp(pos.x, x, x + size);
-				pos.y = Mth.clamp(pos.y, y, y + size);
+			int labelHeight = minecraft.font.lineHeight;
+			for (int i = 0; i < MapOverlay.CARDINAL_DIRECTIONS; i++) {
+				var label = MapOverlay.cardinalLabel(i);
+				int labelWidth = overlay.labelWidth(label);
+				overlay.projectCardinal(i);
 				guiGraphics.pose().pushPose();
-				guiGraphics.pose().last().pose().translate(pos);
+				guiGraphics.pose().translate(overlay.x(), overlay.y(), 0);
 				guiGraphics.pose().scale(0.5f, 0.5f, 1);
 				guiGraphics.fill(-(labelWidth / 2 + 2), -(labelHeight / 2 + 2), labelWidth / 2 + 2, labelHeight / 2 + 2, 0x77888888);
 				guiGraphics.drawString(minecraft.font, label, -labelWidth / 2, -labelHeight / 2, -1);
 				guiGraphics.pose().popPose();
 			}
-			guiGraphics.pose().popPose();
 		}
 
 		guiGraphics.pose().pushPose();
@@ -182,168 +231,288 @@ public void renderMap(GuiGraphics guiGraphics) {
 		guiGraphics.pose().popPose();
 	}
 
+	private void blitRing(GuiGraphics guiGraphics, int x, int y, int u, int v, int width, int height) {
+		if (width > 0 && height > 0) {
+			guiGraphics.blit(texLocation, x, y, u, v, width, height, viewDistance, viewDistance);
+		}
+	}
+
 	private void renderMapWaypoints(GuiGraphics graphics) {
 		if (!AxolotlClientWaypoints.renderWaypoints.get()) return;
-		graphics.pose().pushPose();
-		Vector3f pos = new Vector3f();
-		for (Waypoint waypoint : AxolotlClientWaypoints.getCurrentWaypoints()) {
-			graphics.pose().pushPose();
-			float posX = (float) (waypoint.x() - minecraft.player.getX());
-			float posY = (float) (waypoint.z() - minecraft.player.getZ());
-
-			{
-				pos.zero();
-				graphics.pose().pushPose();
-				graphics.pose().setIdentity();
-				graphics.pose().translate(x, y, 0);
-				graphics.pose().translate(radius, radius, 0);
-				graphics.pose().scale((float) Math.sqrt(2), (float) Math.sqrt(2), 1);
-				graphics.pose().scale(mapScale.get(), mapScale.get(), 1);
-				if (!lockMapToNorth.get()) {
-					graphics.pose().last().pose().rotate((float) -Math.toRadians(minecraft.player.getVisualRotationYInDegrees() + 180), 0, 0, 1);
-				}
-				graphics.pose().translate(posX, posY, 1);
-				graphics.pose().last().pose().transformPosition(pos);
-				graphics.pose().popPose();
-			}
-
-			{
-				pos.x = Mth.clamp(pos.x, x, x + size);
-				pos.y = Mth.clamp(pos.y, y, y + size);
-				graphics.pose().last().pose().translate(pos);
+		double playerX = minecraft.player.getX();
+		double playerZ = minecraft.player.getZ();
+		int textHeight = minecraft.font.lineHeight;
+		for (Waypoint waypoint : waypoints) {
+			if (!overlay.project(waypoint.x() - playerX, waypoint.z() - playerZ)) {
+				continue;
 			}
-
-			int textWidth = minecraft.font.width(waypoint.display());
-			int textHeight = minecraft.font.lineHeight;
+			int textWidth = overlay.labelWidth(waypoint.display());
+			graphics.pose().pushPose();
+			graphics.pose().translate(overlay.x(), overlay.y(), 1);
 			graphics.fill(-(textWidth / 2) - Waypoint.displayXOffset(), -(textHeight / 2) - Waypoint.displayYOffset(), (textWidth / 2) + Waypoint.displayXOffset(), (textHeight / 2) + Waypoint.displayYOffset(), waypoint.color().toInt());
 			graphics.drawString(minecraft.font, waypoint.display(), -(textWidth / 2), -textHeight / 2, -1, false);
 			graphics.pose().popPose();
 		}
-		graphics.pose().popPose();
 	}
 
 	public void updateMapView() {
+		var mapWork = AxolotlClientWaypointsCommon.MAP_WORK;
+		if (mapWork.getGeneration() != workGeneration) {
+			// the scheduler dropped the queued jobs, so they have to be queued again
+			workGeneration = mapWork.getGeneration();
+			pendingChunks.clear();
+			pendingSamples.clear();
+			viewValid = false;
+		}
 		if (!isEnabled()) {
 			updateDuration = -1;
+			viewValid = false;
 			return;
 		}
+		resolution = Integer.parseInt(mapResolution.get());
+		int viewDistance = getConfiguredViewDistance();
+		if (viewDistance != this.viewDistance) {
+			resize(viewDistance);
+		}
+		if (showWaypoints.get() && AxolotlClientWaypoints.renderWaypoints.get()) {
+			// sorted by distance once per tick instead of on every frame
+			waypoints = AxolotlClientWaypoints.getCurrentWaypoints();
+		}
 		long start = Util.getNanos();
+		ticks++;
 		int centerX = minecraft.player.getBlockX();
 		int centerZ = minecraft.player.getBlockZ();
+
+		var level = minecraft.level;
+		int caveY = isAtSurface(level, centerX, centerZ) ? MapColumnCache.SURFACE : minecraft.player.getBlockY();
+		boolean biomeBlending = enableBiomeBlending.get();
+		// the view is drawn in map pixels, which cover several blocks when zoomed out
+		int zoom = zoomOut.get();
+		if (asyncRasterization.get()) {
+			updateMapViewAsync(level, centerX >> zoom, centerZ >> zoom, zoom, caveY, biomeBlending);
+		} else {
+			updateMapView(level, centerX >> zoom, centerZ >> zoom, zoom, caveY, biomeBlending);
+		}
+		updateDuration = Util.getNanos() - start;
+		recordCost(updateDuration);
+	}
+
+	private void updateMapView(ClientLevel level, int centerX, int centerZ, int zoom, int caveY, boolean biomeBlending) {
+		staleTicks = 0;
+		int size = viewDistance;
+		int minX = centerX - size / 2;
+		int minZ = centerZ - size / 2;
+		int dx = centerX - mapCenterX;
+		int dz = centerZ - mapCenterZ;
 		mapCenterX = centerX;
 		mapCenterZ = centerZ;
-		int size = pixels.getWidth();
-		int texHalfWidth = size / 2;
-
-		BlockPos.MutableBlockPos mutableBlockPos = new BlockPos.MutableBlockPos();
-		BlockPos.MutableBlockPos mutableBlockPos2 = new BlockPos.MutableBlockPos();
+		if (!(minecraft.screen instanceof WorldMapScreen)) {
+			AxolotlClientWaypointsCommon.MAP_WORK.setFocus(centerX << zoom, centerZ << zoom);
+		}
 
-		var level = minecraft.level;
-		var centerChunk = level.getChunk(SectionPos.blockToSectionCoord(centerX), SectionPos.blockToSectionCoord(centerZ));
-		var surface = centerChunk.getHeight(Heightmap.Types.WORLD_SURFACE, centerX, centerZ);
-		mutableBlockPos.set(centerX, surface, centerZ);
-		int solidBlocksAbovePlayer = 0;
-		boolean atSurface = false;
-		if (level.dimensionType().hasCeiling()) {
-			atSurface = minecraft.player.getBlockY() >= level.dimensionType().logicalHeight();
-		} else if (surface + 1 <= minecraft.player.getBlockY()) {
-			atSurface = true;
+		boolean teleported = level != lastLevel || zoom != this.zoom || Math.abs(dx) >= size || Math.abs(dz) >= size;
+		if (!viewValid || teleported || caveY != lastCaveY || biomeBlending != lastBiomeBlending) {
+			this.zoom = zoom;
+			Arrays.fill(drawnChunks, null);
+			prefetcher.clear();
+			dirtyColumns.clear();
+			if (teleported) {
+				// the old contents are unrelated to the new view, better show nothing until it is drawn
+				clearRegion(minX, minZ, size, size);
+			}
+			scheduleRegion(minX, minZ, size, size);
+			viewValid = true;
+			lastLevel = level;
+			lastCaveY = caveY;
+			lastBiomeBlending = biomeBlending;
 		} else {
-			while (solidBlocksAbovePlayer <= 3 && surface > minecraft.player.getBlockY() && surface > level.getMinBuildHeight()) {
-				BlockState state = centerChunk.getBlockState(mutableBlockPos);
-				mutableBlockPos.setY(surface--);
-				if (!(state.propagatesSkylightDown(level, mutableBlockPos.below()) || !state.canOcclude() || !state.isViewBlocking(level, mutableBlockPos))) {
-					solidBlocksAbovePlayer++;
+			// the texture is a ring buffer addressed by map pixel coordinates, so only the strips that scrolled
+			// into view need to be redrawn. Until their jobs ran they would show the opposite edge of the view.
+			if (dx != 0) {
+				int stripX = dx > 0 ? minX + size - dx : minX;
+				clearRegion(stripX, minZ, Math.abs(dx), size);
+				scheduleRegion(stripX, minZ, Math.abs(dx), size);
+			}
+			if (dz != 0) {
+				int stripX = dx > 0 ? minX : minX - dx;
+				int stripZ = dz > 0 ? minZ + size - dz : minZ;
+				clearRegion(stripX, stripZ, size - Math.abs(dx), Math.abs(dz));
+				scheduleRegion(stripX, stripZ, size - Math.abs(dx), Math.abs(dz));
+			}
+			// everything else only changes through block updates and chunk loads
+			if (!dirtyColumns.isEmpty()) {
+				int mask = viewDistance - 1;
+				int shift = 4 - zoom;
+				dirtyColumns.drain((texX, texZ) -> scheduleChunk((minX + ((texX - minX) & mask)) >> shift, (minZ + ((texZ - minZ) & mask)) >> shift));
+			}
+		}
+		prefetch(level, caveY, biomeBlending);
+	}
+
+	/**
+	 * Prepares the columns and colors of the chunks the view is about to scroll over in the idle time
+	 * of the map work budget, so the strips moving into view only have to be copied.
+	 */
+	private void prefetch(ClientLevel level, int caveY, boolean biomeBlending) {
+		var mapWork = AxolotlClientWaypointsCommon.MAP_WORK;
+		mapWork.clearIdle();
+		prefetcher.predict(minecraft.player.getX(), minecraft.player.getZ(), mapCenterX, mapCenterZ, viewDistance, zoom, (chunkX, chunkZ) ->
+			mapWork.submitIdle((chunkX << 4) + 8, (chunkZ << 4) + 8, () -> {
+				var columns = sampler.getColumns(level, chunkX, chunkZ, caveY);
+				if (columns != null) {
+					sampler.chunkColors(level, columns, biomeBlending);
+					prefetcher.markPrefetched(chunkX, chunkZ);
 				}
+			}));
+	}
+
+	private void updateMapViewAsync(ClientLevel level, int centerX, int centerZ, int zoom, int caveY, boolean biomeBlending) {
+		// the synchronous path has to start over once it takes back control of the texture
+		viewValid = false;
+		if (pendingFrame != null) {
+			if (!pendingFrame.isDone()) {
+				staleTicks = (int) (ticks - displayedTick);
+				return;
 			}
-			if (solidBlocksAbovePlayer <= 2) {
-				atSurface = true;
+			var frame = pendingFrame.join();
+			pendingFrame = null;
+			if (frame != null) {
+				int[] buffer = frontBuffer;
+				frontBuffer = backBuffer;
+				backBuffer = buffer;
+				mapCenterX = frame.centerX();
+				mapCenterZ = frame.centerZ();
+				this.zoom = frame.zoom();
+				displayedTick = frame.tick();
+				drawDuration += frame.duration();
+				frame.snapshot().publish();
+				framebuffer.copyFrom(frontBuffer);
+				MapTextures.upload(tex, framebuffer);
 			}
 		}
+		staleTicks = (int) (ticks - displayedTick);
 
-		boolean updated = false;
-		for (int x = 0; x < size; x++) {
-			double d = 0.0;
-			for (int z = -1; z < size; z++) {
-				int chunkX = (centerX + x - texHalfWidth);
-				int chunkZ = (centerZ + z - texHalfWidth);
-				ChunkAccess levelChunk = level.getChunk(SectionPos.blockToSectionCoord(chunkX), SectionPos.blockToSectionCoord(chunkZ), ChunkStatus.FULL, false);
-				if (levelChunk != null) {
-					int fluidDepth = 0;
-					double e = 0.0;
-					mutableBlockPos.set(chunkX, 0, chunkZ);
-					int y = levelChunk.getHeight(Heightmap.Types.WORLD_SURFACE, mutableBlockPos.getX(), mutableBlockPos.getZ()) + 1;
-					if (!atSurface) {
-						y = Math.min(y, minecraft.player.getBlockY());
-					}
-					BlockState blockState;
-					if (y <= level.getMinBuildHeight()) {
-						blockState = Blocks.AIR.defaultBlockState();
-					} else {
-						do {
-							mutableBlockPos.setY(--y);
-							blockState = levelChunk.getBlockState(mutableBlockPos);
-						} while (blockState.getMapColor(level, mutableBlockPos) == MapColor.NONE && y > level.getMinBuildHeight());
-
-						if (y > level.getMinBuildHeight() && !blockState.getFluidState().isEmpty()) {
-							int highestFullBlockY = y - 1;
-							mutableBlockPos2.set(mutableBlockPos);
-
-							BlockState blockState2;
-							do {
-								mutableBlockPos2.setY(highestFullBlockY--);
-								blockState2 = levelChunk.getBlockState(mutableBlockPos2);
-								fluidDepth++;
-							} while (highestFullBlockY > level.getMinBuildHeight() && !blockState2.getFluidState().isEmpty());
-
-							FluidState fluidState = blockState.getFluidState();
-							blockState = !fluidState.isEmpty() && !blockState.isFaceSturdy(level, mutableBlockPos, Direction.UP) ? fluidState.createLegacyBlock() : blockState;
-						}
-					}
-
-					e += y;
-					var mapColor = blockState.getMapColor(level, mutableBlockPos);
-
-					int color;
-					if (mapColor == MapColor.WATER) {
-						var floorBlock = levelChunk.getBlockState(mutableBlockPos2);
-						var floorColor = floorBlock.getMapColor(level, mutableBlockPos2).col;
-						int biomeColor = enableBiomeBlending.get() ? BiomeColors.getAverageWaterColor(level, mutableBlockPos) : mapColor.col;
-						float shade = level.getShade(Direction.UP, true);
-						int waterColor = ARGB.fromABGR(biomeColor);
-						waterColor = ARGB.colorFromFloat(1f, ARGB.redFloat(waterColor) * shade, ARGB.greenFloat(waterColor) * shade, ARGB.blueFloat(waterColor) * shade);
-						waterColor = ARGB.average(waterColor, ARGB.scaleRGB(floorColor, 1f - fluidDepth / 15f));
-						color = waterColor;
-					} else {
-						double f = (e - d) * 4.0 / (1 + 4) + ((x + z & 1) - 0.5) * 0.4;
-						MapColor.Brightness brightness;
-						if (f > 0.6) {
-							brightness = MapColor.Brightness.HIGH;
-						} else if (f < -0.6) {
-							brightness = MapColor.Brightness.LOW;
-						} else {
-							brightness = MapColor.Brightness.NORMAL;
-						}
-						color = mapColor.calculateRGBColor(brightness);
-					}
-
-					d = e;
-
-					if (z >= 0 && Integer.rotateRight(pixels.getPixelRGBA(x, z), 4) != color) {
-						pixels.setPixelRGBA(x, z, ARGB.opaque(color));
-						updated = true;
-					}
-				} else {
-					if (z >= 0 && Integer.rotateRight(pixels.getPixelRGBA(x, z), 4) != 0) {
-						pixels.setPixelRGBA(x, z, ARGB.opaque(0));
-						updated = true;
-					}
+		int[] target = backBuffer;
+		long tick = ticks;
+		int viewDistance = this.viewDistance;
+		// the worker only shades and copies this snapshot. Sampling chunks, cave floors included, is left to
+		// the client thread, missing chunks are sampled through the map work budget and show up in a later frame.
+		var snapshot = sampler.snapshot(level, centerX - viewDistance / 2, centerZ - viewDistance / 2, viewDistance, zoom, biomeBlending);
+		var cache = AxolotlClientWaypointsCommon.COLUMN_CACHE;
+		cache.setLevel(level);
+		snapshot.capture(cache, caveY, (chunkX, chunkZ) -> scheduleSample(level, chunkX, chunkZ, caveY, biomeBlending));
+		pendingFrame = CompletableFuture.supplyAsync(() -> {
+			long start = Util.getNanos();
+			snapshot.draw(target);
+			return new RasterFrame(centerX, centerZ, zoom, tick, Util.getNanos() - start, snapshot);
+		}, RASTER_WORKER).exceptionally(e -> {
+			log.error("Failed to rasterize the minimap!", e);
+			return null;
+		});
+	}
+
+	/**
+	 * Samples a chunk that is missing from a snapshot, so it is cached by the time the next frame is captured.
+	 */
+	private void scheduleSample(ClientLevel level, int chunkX, int chunkZ, int caveY, boolean biomeBlending) {
+		long key = MapColumnCache.pack(chunkX, chunkZ);
+		if (pendingSamples.add(key)) {
+			AxolotlClientWaypointsCommon.MAP_WORK.submit((chunkX << 4) + 8, (chunkZ << 4) + 8, () -> {
+				pendingSamples.remove(key);
+				if (sampler.getColumns(level, chunkX, chunkZ, caveY) != null && biomeBlending) {
+					sampler.getBiomeColors(level, chunkX, chunkZ);
 				}
+			});
+		}
+	}
+
+	private boolean isAtSurface(ClientLevel level, int centerX, int centerZ) {
+		if (level.dimensionType().hasCeiling()) {
+			return minecraft.player.getBlockY() >= level.dimensionType().logicalHeight();
+		}
+		return AxolotlClientWaypoints.SURFACE_TRACKER.isAtSurface(level, centerX, minecraft.player.getBlockY(), centerZ);
+	}
+
+	private void clearRegion(int mapX, int mapZ, int width, int height) {
+		int shift = 4 - zoom;
+		int chunkMask = (viewDistance >> shift) - 1;
+		MapRasterizer.clear(mapX, mapZ, mapX + width, mapZ + height, framebuffer);
+		for (int chunkZ = mapZ >> shift; chunkZ <= (mapZ + height - 1) >> shift; chunkZ++) {
+			for (int chunkX = mapX >> shift; chunkX <= (mapX + width - 1) >> shift; chunkX++) {
+				drawnChunks[(chunkX & chunkMask) + (chunkZ & chunkMask) * (chunkMask + 1)] = null;
+			}
+		}
+	}
+
+	private void scheduleRegion(int mapX, int mapZ, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		int shift = 4 - zoom;
+		for (int chunkZ = mapZ >> shift; chunkZ <= (mapZ + height - 1) >> shift; chunkZ++) {
+			for (int chunkX = mapX >> shift; chunkX <= (mapX + width - 1) >> shift; chunkX++) {
+				scheduleChunk(chunkX, chunkZ);
 			}
 		}
-		if (updated) {
-			tex.upload();
+	}
+
+	private void scheduleChunk(int chunkX, int chunkZ) {
+		if (pendingChunks.add(MapColumnCache.pack(chunkX, chunkZ))) {
+			AxolotlClientWaypointsCommon.MAP_WORK.submit((chunkX << 4) + 8, (chunkZ << 4) + 8, () -> drawChunk(chunkX, chunkZ));
+		}
+	}
+
+	private void drawChunk(int chunkX, int chunkZ) {
+		pendingChunks.remove(MapColumnCache.pack(chunkX, chunkZ));
+		if (!viewValid) {
+			return;
+		}
+		// the view may have moved since the job was queued
+		int shift = 4 - zoom;
+		int minX = mapCenterX - viewDistance / 2;
+		int minZ = mapCenterZ - viewDistance / 2;
+		int fromX = Math.max(minX, chunkX << shift);
+		int fromZ = Math.max(minZ, chunkZ << shift);
+		int toX = Math.min(minX + viewDistance, (chunkX + 1) << shift);
+		int toZ = Math.min(minZ + viewDistance, (chunkZ + 1) << shift);
+		if (fromX < toX && fromZ < toZ) {
+			long start = Util.getNanos();
+			rasterize(lastLevel, fromX, fromZ, toX - fromX, toZ - fromZ, lastCaveY);
+			drawDuration += Util.getNanos() - start;
+		}
+	}
+
+	private void rasterize(ClientLevel level, int mapX, int mapZ, int width, int height, int caveY) {
+		int shift = 4 - zoom;
+		int chunkSize = 1 << shift;
+		int chunkMask = (viewDistance >> shift) - 1;
+		boolean biomeBlending = enableBiomeBlending.get();
+		int maxX = mapX + width;
+		int maxZ = mapZ + height;
+		// resolve each chunk covering the region once and draw it as a block instead of looking it up for every pixel
+		for (int chunkZ = mapZ >> shift; chunkZ <= (maxZ - 1) >> shift; chunkZ++) {
+			int fromZ = Math.max(mapZ, chunkZ << shift);
+			int toZ = Math.min(maxZ, (chunkZ + 1) << shift);
+			for (int chunkX = mapX >> shift; chunkX <= (maxX - 1) >> shift; chunkX++) {
+				int fromX = Math.max(mapX, chunkX << shift);
+				int toX = Math.min(maxX, (chunkX + 1) << shift);
+				int slot = (chunkX & chunkMask) + (chunkZ & chunkMask) * (chunkMask + 1);
+				var columns = sampler.getColumns(level, chunkX, chunkZ, caveY);
+				if (columns == null) {
+					MapRasterizer.copyChunk(null, zoom, chunkX, chunkZ, fromX, fromZ, toX, toZ, framebuffer);
+					drawnChunks[slot] = null;
+					continue;
+				}
+				// the whole block of the texture was last drawn from exactly these columns
+				if (drawnChunks[slot] == columns && drawnRevisions[slot] == columns.revision()) {
+					continue;
+				}
+				int[] colors = sampler.chunkColors(level, columns, biomeBlending);
+				MapRasterizer.copyChunk(colors, zoom, chunkX, chunkZ, fromX, fromZ, toX, toZ, framebuffer);
+				boolean complete = toX - fromX == chunkSize && toZ - fromZ == chunkSize;
+				drawnChunks[slot] = complete ? columns : null;
+				drawnRevisions[slot] = columns.revision();
+			}
 		}
-		updateDuration = Util.getNanos() - start;
 	}
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import io.github.axolotlclient.waypoints.util.ARGB;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.EmptyBlockGetter;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.material.FluidState;
+import net.minecraft.world.level.material.MapColor;
+
+/**
+ * Map color properties of every block state, indexed by global block state id.
+ * Each entry packs the state's map color id, the color id shown when the state is seen from above
+ * as the top of a fluid column and the {@link #NONE}/{@link #FLUID} flags.
+ * The three shaded variants are kept per map color, as they don't depend on the state.
+ */
+public final class MapColorTable {
+	public static final int NONE = 1 << 16, FLUID = 1 << 17;
+	private static final int COLOR_COUNT = 64;
+	private static final MapColor.Brightness[] BRIGHTNESS = {MapColor.Brightness.LOW, MapColor.Brightness.NORMAL, MapColor.Brightness.HIGH};
+	private static final int[] colors = new int[COLOR_COUNT * BRIGHTNESS.length];
+	private static volatile int[] states = new int[0];
+
+	public static final MapRasterizer.Palette PALETTE = new MapRasterizer.Palette() {
+		@Override
+		public int color(int colorId, int brightness) {
+			return MapColorTable.color(colorId, brightness);
+		}
+
+		@Override
+		public int baseColor(int colorId) {
+			return MapColor.byId(colorId).col;
+		}
+
+		@Override
+		public int waterColorId() {
+			return MapColor.WATER.id;
+		}
+
+		@Override
+		public int tint(int color) {
+			return ARGB.fromABGR(color);
+		}
+	};
+
+	static {
+		for (int id = 0; id < COLOR_COUNT; id++) {
+			var mapColor = MapColor.byId(id);
+			for (int b = 0; b < BRIGHTNESS.length; b++) {
+				colors[id * BRIGHTNESS.length + b] = mapColor.calculateRGBColor(BRIGHTNESS[b]);
+			}
+		}
+	}
+
+	private MapColorTable() {
+	}
+
+	/**
+	 * Recomputes all entries. Has to be called whenever the block state ids may have been reassigned.
+	 */
+	public static void rebuild() {
+		int[] table = new int[Block.BLOCK_STATE_REGISTRY.size()];
+		for (BlockState state : Block.BLOCK_STATE_REGISTRY) {
+			table[Block.getId(state)] = compute(state);
+		}
+		states = table;
+	}
+
+	public static int get(BlockState state) {
+		int[] table = states;
+		int id = Block.getId(state);
+		if (id < 0 || id >= table.length) {
+			return compute(state);
+		}
+		return table[id];
+	}
+
+	public static int colorId(int entry) {
+		return entry & 0xFF;
+	}
+
+	public static int surfaceColorId(int entry) {
+		return entry >> 8 & 0xFF;
+	}
+
+	public static boolean isNone(int entry) {
+		return (entry & NONE) != 0;
+	}
+
+	public static boolean isFluid(int entry) {
+		return (entry & FLUID) != 0;
+	}
+
+	public static int color(int colorId, int brightness) {
+		return colors[colorId * BRIGHTNESS.length + brightness];
+	}
+
+	private static int compute(BlockState state) {
+		var mapColor = state.getMapColor(EmptyBlockGetter.INSTANCE, BlockPos.ZERO);
+		int entry = mapColor.id;
+		int surface = mapColor.id;
+		if (mapColor == MapColor.NONE) {
+			entry |= NONE;
+		}
+		FluidState fluidState = state.getFluidState();
+		if (!fluidState.isEmpty()) {
+			entry |= FLUID;
+			if (!state.isFaceSturdy(EmptyBlockGetter.INSTANCE, BlockPos.ZERO, Direction.UP)) {
+				surface = fluidState.createLegacyBlock().getMapColor(EmptyBlockGetter.INSTANCE, BlockPos.ZERO).id;
+			}
+		}
+		return entry | surface << 8;
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.util.function.Predicate;
+
+import io.github.axolotlclient.waypoints.AxolotlClientWaypointsCommon;
+import net.minecraft.client.renderer.BiomeColors;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.ChunkStatus;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.material.MapColor;
+
+/**
+ * Fills {@link MapColumnCache} entries from chunks and turns cached columns back into colors.
+ * Instances hold mutable scratch state and must not be shared between threads.
+ */
+public class MapColumnSampler {
+	private static final MapRasterizer RASTERIZER = new MapRasterizer(MapColorTable.PALETTE, false);
+	private static final byte VISIBLE = 1, INVISIBLE = 2;
+	private static final Predicate<BlockState> HAS_MAP_COLOR = state -> !MapColorTable.isNone(MapColorTable.get(state));
+
+	private final BlockPos.MutableBlockPos mutableBlockPos = new BlockPos.MutableBlockPos();
+	private final ColumnFloors.Builder floorsBuilder = new ColumnFloors.Builder();
+	private int topEntry;
+	private ChunkBiomeColors biomeColors;
+
+	public MapColumnCache.ChunkColumns getColumns(Level level, int chunkX, int chunkZ, int caveY) {
+		var cache = AxolotlClientWaypointsCommon.COLUMN_CACHE;
+		cache.setLevel(level);
+		var columns = cache.get(chunkX, chunkZ, caveY);
+		if (columns == null) {
+			ChunkAccess chunk = level.getChunk(chunkX, chunkZ, ChunkStatus.FULL, false);
+			if (chunk != null) {
+				columns = cache.put(sample(level, chunk, caveY));
+			}
+		}
+		return columns;
+	}
+
+	public MapColumnCache.ChunkColumns getColumns(Level level, ChunkAccess fallback, int caveY) {
+		var pos = fallback.getPos();
+		var columns = getColumns(level, pos.x, pos.z, caveY);
+		if (columns == null) {
+			columns = AxolotlClientWaypointsCommon.COLUMN_CACHE.put(sample(level, fallback, caveY));
+		}
+		return columns;
+	}
+
+	public MapColumnCache.ChunkColumns sample(Level level, ChunkAccess chunk, int caveY) {
+		var pos = chunk.getPos();
+		var columns = new MapColumnCache.ChunkColumns(pos.x, pos.z, caveY);
+		int minY = level.getMinBuildHeight();
+		LevelChunkSection[] sections = chunk.getSections();
+		byte[] visibility = new byte[sections.length];
+		if (caveY != MapColumnCache.SURFACE) {
+			var cache = AxolotlClientWaypointsCommon.COLUMN_CACHE;
+			var floors = cache.getFloors(pos.x, pos.z);
+			if (floors == null) {
+				floors = cache.putFloors(sampleFloors(chunk, sections, visibility, minY));
+			}
+			sampleCave(columns, floors, chunk, sections, caveY, minY);
+			return columns;
+		}
+		for (int z = 0; z < MapColumnCache.ChunkColumns.SIZE; z++) {
+			for (int x = 0; x < MapColumnCache.ChunkColumns.SIZE; x++) {
+				int y = chunk.getHeight(Heightmap.Types.WORLD_SURFACE, pos.getMinBlockX() + x, pos.getMinBlockZ() + z) + 1;
+				int top = MapColor.NONE.id;
+				if (y > minY) {
+					y = findTop(chunk, sections, visibility, x, z, y, minY);
+					top = describeTop(chunk, sections, x, y, z, topEntry, minY);
+				}
+				columns.set(MapColumnCache.ChunkColumns.index(x, z), y, top & 0xFF, top >> 8 & 0xFF, top >> 16 & 0xFF);
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Collects the runs of visible blocks of every column, without going through the cache.
+	 */
+	public ColumnFloors sampleFloors(Level level, ChunkAccess chunk) {
+		LevelChunkSection[] sections = chunk.getSections();
+		return sampleFloors(chunk, sections, new byte[sections.length], level.getMinBuildHeight());
+	}
+
+	private void sampleCave(MapColumnCache.ChunkColumns columns, ColumnFloors floors, ChunkAccess chunk, LevelChunkSection[] sections, int caveY, int minY) {
+		var pos = chunk.getPos();
+		for (int z = 0; z < MapColumnCache.ChunkColumns.SIZE; z++) {
+			for (int x = 0; x < MapColumnCache.ChunkColumns.SIZE; x++) {
+				int index = MapColumnCache.ChunkColumns.index(x, z);
+				int y = Math.min(chunk.getHeight(Heightmap.Types.WORLD_SURFACE, pos.getMinBlockX() + x, pos.getMinBlockZ() + z) + 1, caveY);
+				if (y <= minY) {
+					columns.set(index, y, MapColor.NONE.id, 0, MapColor.NONE.id);
+					continue;
+				}
+				int run = floors.find(index, y - 1);
+				if (run < 0) {
+					columns.set(index, minY, MapColor.NONE.id, 0, MapColor.NONE.id);
+				} else if (floors.top(run) < y) {
+					columns.set(index, floors.top(run), floors.colorId(run), floors.fluidDepth(run), floors.floorColorId(run));
+				} else {
+					// the cave level cuts through this run, so the block right below it is the top block
+					y--;
+					int top = describeTop(chunk, sections, x, y, z, entryAt(chunk, sections, x, y, z), minY);
+					columns.set(index, y, top & 0xFF, top >> 8 & 0xFF, top >> 16 & 0xFF);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collects the runs of visible blocks of every column, for looking up the top block at any cave level.
+	 */
+	private ColumnFloors sampleFloors(ChunkAccess chunk, LevelChunkSection[] sections, byte[] visibility, int minY) {
+		var pos = chunk.getPos();
+		for (int z = 0; z < MapColumnCache.ChunkColumns.SIZE; z++) {
+			for (int x = 0; x < MapColumnCache.ChunkColumns.SIZE; x++) {
+				int y = chunk.getHeight(Heightmap.Types.WORLD_SURFACE, pos.getMinBlockX() + x, pos.getMinBlockZ() + z) + 1;
+				while (y > minY) {
+					y = findTop(chunk, sections, visibility, x, z, y, minY);
+					if (MapColorTable.isNone(topEntry)) {
+						break;
+					}
+					int runTop = y;
+					int top = describeTop(chunk, sections, x, y, z, topEntry, minY);
+					while (y > minY && !MapColorTable.isNone(entryAt(chunk, sections, x, y - 1, z))) {
+						y--;
+					}
+					floorsBuilder.add(runTop, y, top & 0xFF, top >> 8 & 0xFF, top >> 16 & 0xFF);
+				}
+				floorsBuilder.endColumn();
+			}
+		}
+		return floorsBuilder.build(pos.x, pos.z);
+	}
+
+	/**
+	 * Packs the color id, fluid depth and fluid floor color id of the top block found at {@code y}.
+	 */
+	private static int describeTop(ChunkAccess chunk, LevelChunkSection[] sections, int x, int y, int z, int entry, int minY) {
+		if (y <= minY || !MapColorTable.isFluid(entry)) {
+			return MapColorTable.colorId(entry);
+		}
+		int highestFullBlockY = y - 1;
+		int fluidDepth = 0;
+		int floorEntry;
+		do {
+			floorEntry = entryAt(chunk, sections, x, highestFullBlockY--, z);
+			fluidDepth++;
+		} while (highestFullBlockY > minY && MapColorTable.isFluid(floorEntry));
+		return MapColorTable.surfaceColorId(entry) | Math.min(fluidDepth, 0xFF) << 8 | MapColorTable.colorId(floorEntry) << 16;
+	}
+
+	/**
+	 * Walks down from {@code y} to the first block with a map color, skipping whole sections
+	 * that cannot contain one. The entry of the block found is left in {@link #topEntry}.
+	 */
+	private int findTop(ChunkAccess chunk, LevelChunkSection[] sections, byte[] visibility, int x, int z, int y, int minY) {
+		while (y > minY) {
+			int sectionIndex = chunk.getSectionIndex(y - 1);
+			LevelChunkSection section = sections[sectionIndex];
+			int sectionBottom = Math.max(y - 1 & ~15, minY);
+			if (visibility[sectionIndex] == 0) {
+				visibility[sectionIndex] = !section.hasOnlyAir() && section.maybeHas(HAS_MAP_COLOR) ? VISIBLE : INVISIBLE;
+			}
+			if (visibility[sectionIndex] == INVISIBLE) {
+				y = sectionBottom;
+				continue;
+			}
+			do {
+				y--;
+				int entry = MapColorTable.get(section.getBlockState(x, y & 15, z));
+				if (!MapColorTable.isNone(entry)) {
+					topEntry = entry;
+					return y;
+				}
+			} while (y > sectionBottom);
+		}
+		topEntry = MapColorTable.NONE;
+		return minY;
+	}
+
+	private static int entryAt(ChunkAccess chunk, LevelChunkSection[] sections, int x, int y, int z) {
+		return MapColorTable.get(sections[chunk.getSectionIndex(y)].getBlockState(x, y & 15, z));
+	}
+
+	/**
+	 * @return the blended biome colors of a loaded chunk, or {@code null} if it is not loaded
+	 */
+	public ChunkBiomeColors getBiomeColors(Level level, int chunkX, int chunkZ) {
+		var colors = biomeColors;
+		if (colors != null && !colors.isStale() && colors.chunkX() == chunkX && colors.chunkZ() == chunkZ) {
+			return colors;
+		}
+		var cache = AxolotlClientWaypointsCommon.COLUMN_CACHE;
+		colors = cache.getBiomeColors(chunkX, chunkZ);
+		if (colors == null) {
+			ChunkAccess chunk = level.getChunk(chunkX, chunkZ, ChunkStatus.FULL, false);
+			if (chunk == null) {
+				return null;
+			}
+			colors = cache.putBiomeColors(sampleBiomeColors(level, chunk));
+		}
+		return biomeColors = colors;
+	}
+
+	private ChunkBiomeColors sampleBiomeColors(Level level, ChunkAccess chunk) {
+		var pos = chunk.getPos();
+		var colors = new ChunkBiomeColors(pos.x, pos.z);
+		for (int z = 0; z < MapColumnCache.ChunkColumns.SIZE; z++) {
+			for (int x = 0; x < MapColumnCache.ChunkColumns.SIZE; x++) {
+				int worldX = pos.getMinBlockX() + x;
+				int worldZ = pos.getMinBlockZ() + z;
+				mutableBlockPos.set(worldX, chunk.getHeight(Heightmap.Types.WORLD_SURFACE, worldX, worldZ), worldZ);
+				colors.set(MapColumnCache.ChunkColumns.index(x, z), BiomeColors.getAverageWaterColor(level, mutableBlockPos),
+					BiomeColors.getAverageGrassColor(level, mutableBlockPos), BiomeColors.getAverageFoliageColor(level, mutableBlockPos));
+			}
+		}
+		return colors;
+	}
+
+	/**
+	 * Returns the {@link MapMipmaps} pyramid of the chunk's colors in the format of the map textures.
+	 */
+	public int[] chunkColors(Level level, MapColumnCache.ChunkColumns columns, boolean biomeBlending) {
+		var biomes = biomeBlending ? getBiomeColors(level, columns.chunkX(), columns.chunkZ()) : null;
+		return RASTERIZER.chunkColors(columns, biomes, level.getShade(Direction.UP, true), biomeBlending);
+	}
+
+	/**
+	 * Starts a {@link MapSnapshot} of a minimap frame, drawn with the colors of this version.
+	 */
+	public MapSnapshot snapshot(Level level, int mapX, int mapZ, int size, int zoom, boolean biomeBlending) {
+		return new MapSnapshot(RASTERIZER, level.getShade(Direction.UP, true), biomeBlending, mapX, mapZ, size, zoom);
+	}
+}
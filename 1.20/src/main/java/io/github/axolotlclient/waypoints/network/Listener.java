@@ -26,7 +26,9 @@
 import java.util.List;
 
 import io.github.axolotlclient.waypoints.AxolotlClientWaypoints;
+import io.github.axolotlclient.waypoints.AxolotlClientWaypointsCommon;
 import io.github.axolotlclient.waypoints.map.WorldMapScreen;
+import io.github.axolotlclient.waypoints.map.util.TileRegionStorage;
 import lombok.extern.slf4j.Slf4j;
 import net.fabricmc.fabric.api.client.message.v1.ClientReceiveMessageEvents;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
@@ -54,6 +56,8 @@ public void init() {
 		ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> {
 			reset();
 			receivedPayload = false;
+			TileRegionStorage.closeAll();
+			AxolotlClientWaypointsCommon.MAP_WORK.clear();
 		});
 	}
 
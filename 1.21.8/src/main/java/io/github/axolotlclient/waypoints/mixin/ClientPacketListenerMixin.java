@@ -23,6 +23,7 @@
 package io.github.axolotlclient.waypoints.mixin;
 
 import io.github.axolotlclient.waypoints.AxolotlClientWaypoints;
+import io.github.axolotlclient.waypoints.map.util.MapColorTable;
 import net.minecraft.client.multiplayer.ClientPacketListener;
 import net.minecraft.network.protocol.game.ClientboundLoginPacket;
 import org.spongepowered.asm.mixin.Mixin;
@@ -35,6 +36,7 @@ public class ClientPacketListenerMixin {
 
 	@Inject(method = "handleLogin", at = @At("TAIL"))
 	private void onLogin(ClientboundLoginPacket packet, CallbackInfo ci) {
+		MapColorTable.rebuild();
 		AxolotlClientWaypoints.WAYPOINT_STORAGE.load();
 	}
 
@@ -38,6 +38,7 @@
 import io.github.axolotlclient.AxolotlClientConfig.impl.util.ConfigStyles;
 import io.github.axolotlclient.waypoints.map.Minimap;
 import io.github.axolotlclient.waypoints.map.WorldMapScreen;
+import io.github.axolotlclient.waypoints.map.util.LevelSurfaceTracker;
 import io.github.axolotlclient.waypoints.mixin.MinecraftServerAccessor;
 import io.github.axolotlclient.waypoints.network.Listener;
 import io.github.axolotlclient.waypoints.waypoints.Waypoint;
@@ -62,6 +63,7 @@
 public class AxolotlClientWaypoints implements ClientModInitializer {
 
 	public static final Minimap MINIMAP = new Minimap();
+	public static final LevelSurfaceTracker SURFACE_TRACKER = new LevelSurfaceTracker();
 	public static final WaypointStorage WAYPOINT_STORAGE = new WaypointStorage();
 	public static final WaypointRenderer WAYPOINT_RENDERER = new WaypointRenderer();
 	public static final Listener NETWORK_LISTENER = new Listener();
@@ -26,22 +26,35 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferUploader;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.Tesselator;
+import com.mojang.blaze3d.vertex.VertexFormat;
 import io.github.axolotlclient.AxolotlClientConfig.api.util.Colors;
 import io.github.axolotlclient.waypoints.AxolotlClientWaypoints;
+import io.github.axolotlclient.waypoints.AxolotlClientWaypointsCommon;
 import io.github.axolotlclient.waypoints.map.util.LevelChunkStorage;
+import io.github.axolotlclient.waypoints.map.util.MapColorTable;
+import io.github.axolotlclient.waypoints.map.util.MapColumnCache;
+import io.github.axolotlclient.waypoints.map.util.MapColumnSampler;
+import io.github.axolotlclient.waypoints.map.util.MapTextures;
+import io.github.axolotlclient.waypoints.map.util.TileAtlas;
+import io.github.axolotlclient.waypoints.map.util.TileData;
+import io.github.axolotlclient.waypoints.map.util.TileIndex;
+import io.github.axolotlclient.waypoints.map.util.TileLod;
+import io.github.axolotlclient.waypoints.map.util.TileMemoryBudget;
+import io.github.axolotlclient.waypoints.map.util.TileRegionStorage;
 import io.github.axolotlclient.waypoints.map.widgets.DropdownButton;
-import io.github.axolotlclient.waypoints.util.ARGB;
 import io.github.axolotlclient.waypoints.waypoints.Waypoint;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 import net.minecraft.client.Minecraft;
@@ -50,24 +63,20 @@
 import net.minecraft.client.gui.components.ImageButton;
 import net.minecraft.client.gui.components.WidgetSprites;
 import net.minecraft.client.gui.screens.Screen;
+import net.minecraft.client.renderer.GameRenderer;
 import net.minecraft.client.renderer.texture.DynamicTexture;
 import net.minecraft.core.BlockPos;
-import net.minecraft.core.Direction;
 import net.minecraft.core.SectionPos;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.util.Mth;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.ChunkAccess;
-import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.level.chunk.status.ChunkStatus;
 import net.minecraft.world.level.levelgen.Heightmap;
-import net.minecraft.world.level.material.FluidState;
-import net.minecraft.world.level.material.MapColor;
-import org.joml.Vector2i;
+import org.joml.Matrix4f;
 import org.joml.Vector3f;
 
 @SuppressWarnings({"DataFlowIssue", "ResultOfMethodCallIgnored"})
@@ -77,7 +86,20 @@ public class WorldMapScreen extends Screen {
 	private static final ResourceLocation OPTIONS_SPRITE = AxolotlClientWaypoints.rl("options");
 	private static final ResourceLocation OPTIONS_HOVERED_SPRITE = OPTIONS_SPRITE.withSuffix("_hovered");
 
-	private final Map<Vector2i, LazyTile> tiles = new ConcurrentHashMap<>();
+	private static final Comparator<TileAtlas.Entry> BY_SLOT = Comparator.comparingInt(TileAtlas.Entry::slot);
+	// building level of detail tiles reads chunk tiles from disk, so it gets a share of the frame time instead of a number of tiles
+	private static final long LOD_UPDATE_NANOS = 2_000_000;
+	// only used by map work on the client thread
+	private static final MapColumnSampler LOADED_CHUNK_SAMPLER = new MapColumnSampler();
+
+	private final TileIndex<LazyTile> tiles = new TileIndex<>();
+	private final TileAtlas<AtlasPage> atlas = new TileAtlas<>(TILE_SIZE, WorldMapScreen::createPage);
+	private final TileMemoryBudget memoryBudget = new TileMemoryBudget();
+	private final TileLod lod = new TileLod(atlas, memoryBudget, this::chunkTileColors);
+	// shades the chunk tiles read for level of detail tiles, on the render thread
+	private final MapColumnSampler lodSampler = new MapColumnSampler();
+	private final List<TileAtlas.Entry> visibleTiles = new ArrayList<>();
+	private long frame;
 	private final Vector3f dragOffset = new Vector3f();
 	private float scale = 1f;
 	public static boolean allowCaves = true, allowCavesNether;
@@ -103,9 +125,7 @@ public void renderBackground(GuiGraphics guiGraphics, int mouseX, int mouseY, fl
 
 		var playerPos = minecraft.player.position();
 
-		for (LazyTile tile : tiles.values()) {
-			tile.render(guiGraphics, (float) playerPos.x(), (float) playerPos.z(), scale, partialTick, caveY, atSurface);
-		}
+		renderTiles(guiGraphics, (float) playerPos.x(), (float) playerPos.z());
 
 		int x = getWorldX(mouseX);
 		int z = getWorldZ(mouseY);
@@ -146,6 +166,117 @@ public void render(GuiGraphics guiGraphics, int mouseX, int mouseY, float partia
 		guiGraphics.drawCenteredString(font, AxolotlClientWaypoints.tr("position", String.valueOf(x), String.valueOf(getY(x, z)), String.valueOf(z)), width / 2, height - 15, Colors.GRAY.toInt());
 	}
 
+	private void renderTiles(GuiGraphics guiGraphics, float playerX, float playerZ) {
+		int level = TileLod.level(scale);
+		// only the tiles under the screen are visited, so the cost does not grow with the explored area
+		int minTileX = Math.floorDiv(getWorldX(0), TILE_SIZE);
+		int minTileY = Math.floorDiv(getWorldZ(0), TILE_SIZE);
+		int maxTileX = Math.floorDiv(getWorldX(width), TILE_SIZE);
+		int maxTileY = Math.floorDiv(getWorldZ(height), TILE_SIZE);
+		visibleTiles.clear();
+		frame++;
+		if (level == 0) {
+			tiles.forEachInRange(minTileX, minTileY, maxTileX, maxTileY, lazyTile -> {
+				if (lazyTile.tile != null) {
+					lazyTile.lastDrawn = frame;
+					visibleTiles.add(lazyTile.tile);
+				} else if (!lazyTile.loaded) {
+					lazyTile.load().thenRun(() -> {
+						if (lazyTile.tile != null) {
+							// drawn from the next frame on, it must not be the first to be evicted
+							lazyTile.lastDrawn = frame;
+							memoryBudget.add(lazyTile, lazyTile.tile.memorySize());
+						}
+						lazyTile.scheduleUpdate(caveY, atSurface);
+					});
+				}
+			});
+		} else {
+			// chunk tiles are read one at a time to build these, so zooming out does not load the whole explored area
+			lod.forEachInRange(level, minTileX, minTileY, maxTileX, maxTileY, frame, visibleTiles::add);
+		}
+		lod.update(LOD_UPDATE_NANOS);
+		memoryBudget.enforce(AxolotlClientWaypoints.MINIMAP.worldMapMemory.get() * 1024L * 1024L, frame);
+		for (var page : atlas.pages()) {
+			MapTextures.upload(page.texture().tex(), page.framebuffer());
+		}
+		// tiles of the same page end up next to each other, so every page is drawn in one batch
+		visibleTiles.sort(BY_SLOT);
+		guiGraphics.pose().pushPose();
+		guiGraphics.pose().translate(-playerX, -playerZ, 0);
+		var matrix = guiGraphics.pose().last().pose();
+		int start = 0;
+		for (int i = 1; i <= visibleTiles.size(); i++) {
+			var page = atlas.page(visibleTiles.get(start).slot());
+			if (i == visibleTiles.size() || atlas.page(visibleTiles.get(i).slot()) != page) {
+				drawTiles(matrix, page, start, i);
+				start = i;
+			}
+		}
+		guiGraphics.pose().popPose();
+	}
+
+	/**
+	 * Draws the visible tiles in {@code [from, to)}, which all lie on the same page, as a single batch of quads.
+	 */
+	private void drawTiles(Matrix4f matrix, TileAtlas.Page<AtlasPage> page, int from, int to) {
+		// level of detail tiles are transparent where nothing was explored yet
+		RenderSystem.enableBlend();
+		RenderSystem.defaultBlendFunc();
+		RenderSystem.setShaderTexture(0, page.texture().rl());
+		RenderSystem.setShader(GameRenderer::getPositionTexShader);
+		var bufferBuilder = Tesselator.getInstance().begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_TEX);
+		float texel = 1f / TileAtlas.PAGE_SIZE;
+		for (int i = from; i < to; i++) {
+			var tile = visibleTiles.get(i);
+			int x = tile.x();
+			int y = tile.z();
+			int size = tile.size();
+			float u = atlas.u(tile.slot()) * texel;
+			float v = atlas.v(tile.slot()) * texel;
+			float uvSize = TILE_SIZE * texel;
+			bufferBuilder.addVertex(matrix, x, y, 0).setUv(u, v);
+			bufferBuilder.addVertex(matrix, x, y + size, 0).setUv(u, v + uvSize);
+			bufferBuilder.addVertex(matrix, x + size, y + size, 0).setUv(u + uvSize, v + uvSize);
+			bufferBuilder.addVertex(matrix, x + size, y, 0).setUv(u + uvSize, v);
+		}
+		BufferUploader.drawWithShader(bufferBuilder.buildOrThrow());
+		RenderSystem.disableBlend();
+	}
+
+	/**
+	 * Reads the colors of a chunk tile to build level of detail tiles from. Tiles that are not loaded are read,
+	 * and moved to their region if saved in an older format, in the background, then shaded on the render thread.
+	 * The tile stays unloaded, as it is not drawn.
+	 */
+	private CompletableFuture<int[]> chunkTileColors(int tileX, int tileY) {
+		var lazyTile = tiles.get(tileX, tileY);
+		if (lazyTile == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		if (lazyTile.tile != null) {
+			int[] colors = new int[TILE_SIZE * TILE_SIZE];
+			return CompletableFuture.completedFuture(atlas.read(lazyTile.tile.slot(), colors) ? colors : null);
+		}
+		var dir = getCurrentLevelMapSaveDir();
+		var level = minecraft.level;
+		int columnsY = atSurface ? MapColumnCache.SURFACE : caveY;
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return Tile.readData(dir, tileX, tileY, level).columns(columnsY);
+			} catch (IOException e) {
+				log.warn("Failed to read tile at {}, {}", tileX, tileY, e);
+				return null;
+			}
+		}).thenApplyAsync(columns -> {
+			if (columns == null || minecraft.level != level) {
+				return null;
+			}
+			boolean biomeBlending = AxolotlClientWaypoints.MINIMAP.enableBiomeBlending.get();
+			return Arrays.copyOf(lodSampler.chunkColors(level, columns, biomeBlending), TILE_SIZE * TILE_SIZE);
+		}, minecraft);
+	}
+
 	private int getY(int x, int z) {
 		int tileX = x / TILE_SIZE;
 		int tileY = z / TILE_SIZE;
@@ -155,12 +286,15 @@ private int getY(int x, int z) {
 		if (z < 0 && z % TILE_SIZE != 0) {
 			tileY -= 1;
 		}
-		var tile = tiles.get(new Vector2i(tileX, tileY));
-		ChunkAccess c;
-		if (tile == null || tile.tile == null) {
-			c = minecraft.level.getChunk(SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(z), ChunkStatus.FULL, false);
-		} else c = tile.tile.chunk.chunk();
-		if (c == null) return minecraft.level.getMinBuildHeight();
+		ChunkAccess c = minecraft.level.getChunk(SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(z), ChunkStatus.FULL, false);
+		if (c == null) {
+			// not loaded, so only the height kept for the tile is known
+			var tile = tiles.get(tileX, tileY);
+			var columns = tile == null || tile.tile == null ? null : tile.tile.data().columns(atSurface ? MapColumnCache.SURFACE : caveY);
+			int index = MapColumnCache.ChunkColumns.index(x, z);
+			if (columns == null || columns.height(index) == MapColumnCache.NO_HEIGHT) return minecraft.level.getMinBuildHeight();
+			return columns.height(index);
+		}
 		int y = c.getHeight(Heightmap.Types.WORLD_SURFACE, x, z);
 		if (atSurface) {
 			return y;
@@ -171,7 +305,7 @@ private int getY(int x, int z) {
 		do {
 			mutableBlockPos.setY(--y);
 			blockState = c.getBlockState(mutableBlockPos);
-		} while (blockState.getMapColor(minecraft.level, mutableBlockPos) == MapColor.NONE && y > minecraft.level.getMinBuildHeight());
+		} while (MapColorTable.isNone(MapColorTable.get(blockState)) && y > minecraft.level.getMinBuildHeight());
 		return y;
 	}
 
@@ -220,26 +354,10 @@ private void collectPlayerYData() {
 		if (allowCaves || (allowCavesNether && level.dimensionType().hasCeiling())) {
 			int playerX = minecraft.player.getBlockX();
 			int playerZ = minecraft.player.getBlockZ();
-			var centerChunk = level.getChunk(SectionPos.blockToSectionCoord(playerX), SectionPos.blockToSectionCoord(playerZ));
-			var surface = centerChunk.getHeight(Heightmap.Types.WORLD_SURFACE, playerX, playerZ);
-			BlockPos.MutableBlockPos mutableBlockPos = new BlockPos.MutableBlockPos(playerX, surface, playerZ);
-			int solidBlocksAbovePlayer = 0;
-			atSurface = false;
 			if (level.dimensionType().hasCeiling()) {
 				atSurface = minecraft.player.getBlockY() >= level.dimensionType().logicalHeight();
-			} else if (surface + 1 <= minecraft.player.getBlockY()) {
-				atSurface = true;
 			} else {
-				while (solidBlocksAbovePlayer <= 3 && surface > minecraft.player.getBlockY() && surface > level.getMinBuildHeight()) {
-					BlockState state = centerChunk.getBlockState(mutableBlockPos);
-					mutableBlockPos.setY(surface--);
-					if (!(state.propagatesSkylightDown(level, mutableBlockPos.below()) || !state.canOcclude() || !state.isViewBlocking(level, mutableBlockPos))) {
-						solidBlocksAbovePlayer++;
-					}
-				}
-				if (solidBlocksAbovePlayer <= 2) {
-					atSurface = true;
-				}
+				atSurface = AxolotlClientWaypoints.SURFACE_TRACKER.isAtSurface(level, playerX, minecraft.player.getBlockY(), playerZ);
 			}
 		} else {
 			atSurface = true;
@@ -255,60 +373,65 @@ private void createTiles() {
 
 		var playerTile = createTile(playerX, playerZ, atSurface, caveY);
 		if (playerTile != null) {
-			Map<Vector2i, LazyTile> loadedTiles = new HashMap<>(tiles);
-			tiles.clear();
-			tiles.put(new Vector2i(playerTile.tilePosX(), playerTile.tilePosY()), playerTile);
-			triggerNeighbourLoad(playerTile, atSurface, caveY, playerTile);
-			loadedTiles.forEach((v, t) -> {
-				if (!tiles.containsKey(v)) {
-					tiles.put(v, t);
+			// tiles of loaded chunks replace the ones read from disk, which stay visible until then
+			var loadedTiles = new TileIndex<LazyTile>();
+			loadedTiles.put(playerTile.tilePosX(), playerTile.tilePosY(), playerTile);
+			triggerNeighbourLoad(loadedTiles, playerTile, atSurface, caveY, playerTile);
+			loadedTiles.forEach(tile -> {
+				var previous = tiles.put(tile.tilePosX(), tile.tilePosY(), tile);
+				lod.register(tile.tilePosX(), tile.tilePosY());
+				if (previous != null) {
+					memoryBudget.remove(previous);
+					previous.release();
 				}
 			});
 
 		}
 	}
 
-	private void triggerNeighbourLoad(LazyTile tile, boolean atSurface, int caveY, LazyTile origin) {
+	private void triggerNeighbourLoad(TileIndex<LazyTile> target, LazyTile tile, boolean atSurface, int caveY, LazyTile origin) {
 		List<Runnable> queue = new ArrayList<>();
-		loadNeighbour(tile, -1, -1, atSurface, caveY, queue, origin);
-		loadNeighbour(tile, -1, 0, atSurface, caveY, queue, origin);
-		loadNeighbour(tile, -1, 1, atSurface, caveY, queue, origin);
-		loadNeighbour(tile, 0, 1, atSurface, caveY, queue, origin);
-		loadNeighbour(tile, 1, 1, atSurface, caveY, queue, origin);
-		loadNeighbour(tile, 1, 0, atSurface, caveY, queue, origin);
-		loadNeighbour(tile, 1, -1, atSurface, caveY, queue, origin);
-		loadNeighbour(tile, 0, -1, atSurface, caveY, queue, origin);
+		loadNeighbour(target, tile, -1, -1, atSurface, caveY, queue, origin);
+		loadNeighbour(target, tile, -1, 0, atSurface, caveY, queue, origin);
+		loadNeighbour(target, tile, -1, 1, atSurface, caveY, queue, origin);
+		loadNeighbour(target, tile, 0, 1, atSurface, caveY, queue, origin);
+		loadNeighbour(target, tile, 1, 1, atSurface, caveY, queue, origin);
+		loadNeighbour(target, tile, 1, 0, atSurface, caveY, queue, origin);
+		loadNeighbour(target, tile, 1, -1, atSurface, caveY, queue, origin);
+		loadNeighbour(target, tile, 0, -1, atSurface, caveY, queue, origin);
 		if (!queue.isEmpty()) {
 			queue.reversed().forEach(Runnable::run);
 		}
 	}
 
-	private void loadNeighbour(LazyTile origin, int tileOffsetX, int tileOffsetY, boolean atSurface, int caveY, List<Runnable> loadQueue, LazyTile mapOrigin) {
+	private void loadNeighbour(TileIndex<LazyTile> target, LazyTile origin, int tileOffsetX, int tileOffsetY, boolean atSurface, int caveY, List<Runnable> loadQueue, LazyTile mapOrigin) {
 		if (tileOffsetY != 0 || tileOffsetX != 0) {
 			var tileXLeft = origin.tilePosX() + tileOffsetX;
 			var tileYLeft = origin.tilePosY() + tileOffsetY;
-			var vec = new Vector2i(tileXLeft, tileYLeft);
-			if (!tiles.containsKey(vec)) {
+			if (!target.containsKey(tileXLeft, tileYLeft)) {
 				var anchorXLeft = tileXLeft * TILE_SIZE;
 				var anchorYLeft = tileYLeft * TILE_SIZE;
 				var tile = createTile(anchorXLeft, anchorYLeft, atSurface, caveY);
 				if (tile != null) {
-					tiles.put(vec, tile);
-					loadQueue.add(() -> triggerNeighbourLoad(tile, atSurface, caveY, mapOrigin));
+					target.put(tileXLeft, tileYLeft, tile);
+					loadQueue.add(() -> triggerNeighbourLoad(target, tile, atSurface, caveY, mapOrigin));
 				}
 			}
 		}
 	}
 
-	private static ResourceLocation getTileRl(int tileX, int tileY) {
-		return AxolotlClientWaypoints.rl("world_map/tile_" + tileX + "_" + tileY);
+	private static AtlasPage createPage(int index) {
+		var rl = AxolotlClientWaypoints.rl("world_map/page_" + index);
+		var tex = new DynamicTexture(new NativeImage(TileAtlas.PAGE_SIZE, TileAtlas.PAGE_SIZE, false));
+		Minecraft.getInstance().getTextureManager().register(rl, tex);
+		return new AtlasPage(rl, tex);
 	}
 
 	private LazyTile createTile(int anchorX, int anchorZ, boolean atSurface, int caveY) {
-		return createTile(minecraft, anchorX, anchorZ, atSurface, caveY);
+		return createTile(minecraft, atlas, lod, anchorX, anchorZ, atSurface, caveY);
 	}
 
-	private static LazyTile createTile(Minecraft minecraft, int anchorX, int anchorZ, boolean atSurface, int caveY) {
+	private static LazyTile createTile(Minecraft minecraft, TileAtlas<AtlasPage> atlas, TileLod lod, int anchorX, int anchorZ, boolean atSurface, int caveY) {
 		anchorZ = anchorZ - anchorZ % TILE_SIZE;
 		anchorX = anchorX - anchorX % TILE_SIZE;
 		var level = minecraft.level;
@@ -324,18 +447,16 @@ private static LazyTile createTile(Minecraft minecraft, int anchorX, int anchorZ
 		if (tileChunk != null) {
 			int finalTileX = tileX;
 			int finalTileY = tileY;
-			return new LazyTile(tileX, tileY, () -> Tile.create(finalTileX, finalTileY, tileChunk));
+			return new LazyTile(tileX, tileY, () -> Tile.create(atlas, lod, finalTileX, finalTileY, new TileData(finalTileX, finalTileY)));
 		}
 		return null;
 	}
 
 	public static void saveLoadedChunkTile(ChunkPos pos) {
-		Minecraft minecraft = Minecraft.getInstance();
 		var anchorX = pos.getMinBlockX();
 		var anchorZ = pos.getMinBlockZ();
 		anchorZ = anchorZ - anchorZ % TILE_SIZE;
 		anchorX = anchorX - anchorX % TILE_SIZE;
-		var level = minecraft.level;
 		int tileX = anchorX / TILE_SIZE;
 		int tileY = anchorZ / TILE_SIZE;
 		if (anchorX < 0 && anchorX % TILE_SIZE != 0) {
@@ -344,16 +465,35 @@ public static void saveLoadedChunkTile(ChunkPos pos) {
 		if (anchorZ < 0 && anchorZ % TILE_SIZE != 0) {
 			tileY -= 1;
 		}
-		ChunkAccess tileChunk = level.getChunk(tileX, tileY, ChunkStatus.FULL, false);
-		if (tileChunk != null) {
+		int finalTileX = tileX;
+		int finalTileY = tileY;
+		// sampling a whole chunk is too slow to do for every chunk right as it loads, so it shares the time budget of map updates
+		AxolotlClientWaypointsCommon.MAP_WORK.submit(tileX * TILE_SIZE + TILE_SIZE / 2, tileY * TILE_SIZE + TILE_SIZE / 2, () -> saveChunkTile(finalTileX, finalTileY));
+	}
+
+	private static void saveChunkTile(int tileX, int tileY) {
+		var level = Minecraft.getInstance().level;
+		// unloaded again, or the player left, before it was the tile's turn
+		ChunkAccess tileChunk = level == null ? null : level.getChunk(tileX, tileY, ChunkStatus.FULL, false);
+		if (tileChunk == null) {
+			return;
+		}
+		var data = new TileData(tileX, tileY);
+		var cache = AxolotlClientWaypointsCommon.COLUMN_CACHE;
+		cache.setLevel(level);
+		var floors = cache.getFloors(tileX, tileY);
+		if (floors == null) {
+			// the floors sampled from the chunk's old contents were just invalidated, and the saved tile
+			// has to keep them for every cave level
+			floors = cache.putFloors(LOADED_CHUNK_SAMPLER.sampleFloors(level, tileChunk));
+		}
+		data.capture(LOADED_CHUNK_SAMPLER.getColumns(level, tileChunk, MapColumnCache.SURFACE), floors);
+		data.captureNorthEdge(cache.get(tileX, tileY - 1, MapColumnCache.SURFACE), cache.getFloors(tileX, tileY - 1));
+		if (!data.isEmpty()) {
+			// reading the tile or the level of detail tiles covering it waits for these
 			var dir = getCurrentLevelMapSaveDir();
-			var out = dir.resolve("%d_%d%s".formatted(tileX, tileY, Tile.FILE_EXTENSION));
-			try {
-				Files.createDirectories(dir);
-				new LevelChunkStorage.Entry(tileChunk).write(out);
-			} catch (IOException e) {
-				log.warn("Failed to save tile at {}, {}", tileX, tileY, e);
-			}
+			TileRegionStorage.of(dir).writeAsync(tileX, tileY, data.encode());
+			TileLod.invalidate(dir, tileX, tileY);
 		}
 	}
 
@@ -459,45 +599,59 @@ protected void applyValue() {
 			if (!initializedOnce) {
 				collectPlayerYData();
 			}
-			CompletableFuture.runAsync(() -> {
-				loadSavedTiles();
-				createTiles();
-			});
+			resetLod();
+			// reading the saved tiles may take a while, but replacing tiles frees atlas slots and touches the memory budget,
+			// which only the render thread may do
+			CompletableFuture.runAsync(this::loadSavedTiles).thenRunAsync(this::createTiles, minecraft);
 		}
 		initializedOnce = true;
 	}
 
+	@Override
+	public void tick() {
+		// tiles around the center of the view are updated first
+		AxolotlClientWaypointsCommon.MAP_WORK.setFocus(getWorldX(width / 2), getWorldZ(height / 2));
+	}
+
 	private void updateTiles() {
-		CompletableFuture.runAsync(() -> tiles.values().forEach(t -> t.update(caveY, atSurface, minecraft.level)));
+		resetLod();
+		tiles.forEach(t -> t.scheduleUpdate(caveY, atSurface));
+	}
+
+	private void resetLod() {
+		// only surface tiles are kept on disk, cave levels change too often for that
+		lod.reset(atSurface ? getCurrentLevelMapSaveDir() : null);
 	}
 
 	private void loadSavedTiles() {
 		var dir = getCurrentLevelMapSaveDir();
 		if (Files.exists(dir)) {
+			var storage = TileRegionStorage.of(dir);
+			try {
+				storage.forEachTile((x, y) -> addSavedTile(dir, x, y));
+			} catch (IOException e) {
+				log.info("Failed to load saved world map tiles!", e);
+			}
+			// tiles saved one per file before region files, they are moved into their region once read
 			try (var s = Files.list(dir)) {
 				s.forEach(file -> {
 					var name = file.getFileName().toString();
-					if (!name.endsWith(Tile.FILE_EXTENSION)) {
+					if (!name.endsWith(Tile.LOOSE_FILE_EXTENSION) && !name.endsWith(Tile.LEGACY_FILE_EXTENSION)) {
 						return;
 					}
 					name = name.substring(0, name.indexOf("."));
 					var coords = name.split("_");
 					int x = Integer.parseInt(coords[0]);
 					int y = Integer.parseInt(coords[1]);
-					var key = new Vector2i(x, y);
-					if (!tiles.containsKey(key)) {
-						try {
-							var tile = new LazyTile(x, y, () -> {
-								try {
-									return Tile.read(file, minecraft.level);
-								} catch (IOException e) {
-									return null;
-								}
-							});
-							tiles.put(key, tile);
-						} catch (Exception e) {
-							log.warn("Failed to load tile at {}, {}", x, y, e);
+					try {
+						if (storage.contains(x, y)) {
+							// left behind by a tile saved to its region without being read first
+							Files.delete(file);
+						} else {
+							addSavedTile(dir, x, y);
 						}
+					} catch (IOException e) {
+						log.warn("Failed to migrate tile at {}, {}", x, y, e);
 					}
 				});
 			} catch (IOException e) {
@@ -506,15 +660,40 @@ private void loadSavedTiles() {
 		}
 	}
 
+	private void addSavedTile(Path dir, int x, int y) {
+		if (!tiles.containsKey(x, y)) {
+			try {
+				var tile = new LazyTile(x, y, () -> {
+					try {
+						return Tile.read(atlas, lod, dir, x, y, minecraft.level);
+					} catch (IOException e) {
+						return null;
+					}
+				});
+				tiles.put(x, y, tile);
+				lod.register(x, y);
+			} catch (Exception e) {
+				log.warn("Failed to load tile at {}, {}", x, y, e);
+			}
+		}
+	}
+
 	private void saveTiles() {
 		var dir = getCurrentLevelMapSaveDir();
 		try {
 			Files.createDirectories(dir);
 
-			tiles.values().forEach((tile) -> saveTile(tile, dir));
+			tiles.forEach((tile) -> saveTile(tile, dir));
 		} catch (IOException e) {
 			log.error("Failed to create world map save dir!", e);
 		}
+		try {
+			var storage = TileRegionStorage.of(dir);
+			storage.compact();
+			storage.close();
+		} catch (IOException e) {
+			log.warn("Failed to compact world map regions!", e);
+		}
 	}
 
 	private static void saveTile(LazyTile tile, Path dir) {
@@ -537,43 +716,30 @@ public void removed() {
 		}
 		if (minecraft.screen == null) {
 			saveTiles();
-			tiles.values().forEach(LazyTile::release);
+			tiles.forEach(LazyTile::release);
 			tiles.clear();
+			memoryBudget.clear();
+			lod.clear();
+			atlas.clear(AtlasPage::release);
 		}
 	}
 
-	@RequiredArgsConstructor
-	private static class LazyTile {
+	private static class LazyTile implements TileMemoryBudget.Entry {
 		private Tile tile;
 		@Getter
 		@Accessors(fluent = true)
 		private final int tilePosX, tilePosY;
-		private final Supplier<Tile> supplier;
-		private final Vector3f pos = new Vector3f();
+		private Supplier<Tile> supplier;
 		private boolean loaded;
+		private boolean updatePending, pendingAtSurface;
+		private int pendingGeneration;
+		private int pendingCaveY;
+		private long lastDrawn;
 
-		public void render(GuiGraphics guiGraphics, float playerX, float playerZ, float scale, float delta, int caveY, boolean atSurface) {
-			float x = tilePosX() * TILE_SIZE - playerX;
-			float y = tilePosY() * TILE_SIZE - playerZ;
-			guiGraphics.pose().pushPose();
-			guiGraphics.pose().translate(x, y, 0);
-			pos.zero();
-			guiGraphics.pose().last().pose().transformPosition(pos);
-			if (pos.x + TILE_SIZE * scale >= 0 && pos.x < guiGraphics.guiWidth() && pos.y + TILE_SIZE * scale >= 0 && pos.y < guiGraphics.guiHeight()) {
-				if (tile == null) {
-					if (!loaded) {
-						load().thenRunAsync(() -> {
-							if (tile != null) {
-								tile.update(caveY, atSurface, Minecraft.getInstance().level);
-							}
-						});
-					}
-				} else {
-					// FIXME - floating point precision errors?
-					guiGraphics.blit(tile.rl(), 0, 0, 0, 0, TILE_SIZE, TILE_SIZE, TILE_SIZE, TILE_SIZE);
-				}
-			}
-			guiGraphics.pose().popPose();
+		public LazyTile(int tilePosX, int tilePosY, Supplier<Tile> supplier) {
+			this.tilePosX = tilePosX;
+			this.tilePosY = tilePosY;
+			this.supplier = supplier;
 		}
 
 		public CompletableFuture<?> load() {
@@ -597,147 +763,180 @@ public void save(Path dir) throws IOException {
 			}
 		}
 
+		@Override
+		public long lastDrawn() {
+			return lastDrawn;
+		}
+
+		/**
+		 * Saves the tile in the background and drops it from memory. The next load reads it back from disk.
+		 */
+		@Override
+		public void evict() {
+			var evicted = tile;
+			release();
+			tile = null;
+			loaded = false;
+			var dir = getCurrentLevelMapSaveDir();
+			if (!evicted.data().isEmpty()) {
+				// reading the tile back waits for this write
+				TileRegionStorage.of(dir).writeAsync(tilePosX, tilePosY, evicted.data().encode());
+			}
+			supplier = () -> {
+				try {
+					return Tile.read(evicted.atlas(), evicted.lod(), dir, tilePosX, tilePosY, Minecraft.getInstance().level);
+				} catch (IOException e) {
+					return null;
+				}
+			};
+		}
+
 		public void update(int caveY, boolean atSurface, Level level) {
 			if (tile != null) {
 				tile.update(caveY, atSurface, level);
 			}
 		}
+
+		/**
+		 * Queues an update with the map work scheduler. Must be called on the client thread.
+		 */
+		public void scheduleUpdate(int caveY, boolean atSurface) {
+			pendingCaveY = caveY;
+			pendingAtSurface = atSurface;
+			var mapWork = AxolotlClientWaypointsCommon.MAP_WORK;
+			// a job dropped by the scheduler never resets the flag
+			if (!updatePending || pendingGeneration != mapWork.getGeneration()) {
+				updatePending = true;
+				pendingGeneration = mapWork.getGeneration();
+				mapWork.submit(tilePosX * TILE_SIZE + TILE_SIZE / 2, tilePosY * TILE_SIZE + TILE_SIZE / 2, () -> {
+					updatePending = false;
+					update(pendingCaveY, pendingAtSurface, Minecraft.getInstance().level);
+				});
+			}
+		}
+	}
+
+	private record AtlasPage(ResourceLocation rl, DynamicTexture tex) {
+		public void release() {
+			Minecraft.getInstance().getTextureManager().release(rl);
+		}
 	}
 
 	@SuppressWarnings("ResultOfMethodCallIgnored")
-	private record Tile(int tilePosX, int tilePosY, ResourceLocation rl, DynamicTexture tex,
-						LevelChunkStorage.Entry chunk) {
-		public static final String FILE_EXTENSION = ".bin";
+	private record Tile(int tilePosX, int tilePosY, TileAtlas<AtlasPage> atlas, TileLod lod, int slot,
+						TileData data) implements TileAtlas.Entry {
+		// tiles saved one per file before they were packed into region files
+		public static final String LOOSE_FILE_EXTENSION = ".tile";
+		// whole chunks as written before tiles only kept their columns, converted once they are read
+		public static final String LEGACY_FILE_EXTENSION = ".bin";
+
+		@Override
+		public int x() {
+			return tilePosX * TILE_SIZE;
+		}
+
+		@Override
+		public int z() {
+			return tilePosY * TILE_SIZE;
+		}
+
+		@Override
+		public int size() {
+			return TILE_SIZE;
+		}
 
 		public void release() {
-			Minecraft.getInstance().getTextureManager().release(rl);
+			atlas.free(slot);
 		}
 
-		public void save(Path dir) throws IOException {
-			var out = dir.resolve("%d_%d%s".formatted(tilePosX, tilePosY, FILE_EXTENSION));
-			chunk.write(out);
+		/**
+		 * @return roughly how many bytes the tile keeps in memory: its pixels on the atlas page and its texture, and its columns
+		 */
+		public long memorySize() {
+			return TILE_SIZE * TILE_SIZE * 8L + data.estimatedSize();
 		}
 
-		public static Tile create(int x, int y, ChunkAccess chunk) {
-			return create(x, y, new LevelChunkStorage.Entry(chunk));
+		public static Path looseFile(Path dir, int tileX, int tileY) {
+			return dir.resolve("%d_%d%s".formatted(tileX, tileY, LOOSE_FILE_EXTENSION));
 		}
 
-		public static Tile create(int x, int y, LevelChunkStorage.Entry chunk) {
-			var rl = getTileRl(x, y);
-			var tex = new DynamicTexture(new NativeImage(TILE_SIZE, TILE_SIZE, false));
-			tex.getPixels().fillRect(0, 0, TILE_SIZE, TILE_SIZE, Colors.BLACK.toInt());
-			Minecraft.getInstance().getTextureManager().register(rl, tex);
-			return new Tile(x, y, rl, tex, chunk);
+		public static Path legacyFile(Path dir, int tileX, int tileY) {
+			return dir.resolve("%d_%d%s".formatted(tileX, tileY, LEGACY_FILE_EXTENSION));
 		}
 
-		public static Tile read(Path p, Level level) throws IOException {
-			var name = p.getFileName().toString();
-			name = name.substring(0, name.indexOf("."));
-			var coords = name.split("_");
-			int x = Integer.parseInt(coords[0]);
-			int y = Integer.parseInt(coords[1]);
-			return create(x, y, LevelChunkStorage.Entry.read(p, level));
+		public void save(Path dir) throws IOException {
+			save(dir, data);
 		}
 
-		public void update(int caveY, boolean atSurface, Level level) {
-			if (chunk.chunk() instanceof LevelChunk levelChunk && levelChunk.isEmpty()) {
-				tex.getPixels().fillRect(0, 0, TILE_SIZE, TILE_SIZE, Colors.BLACK.toInt());
-				tex.upload();
-				return;
+		public static void save(Path dir, TileData data) throws IOException {
+			if (!data.isEmpty()) {
+				TileRegionStorage.of(dir).write(data.chunkX(), data.chunkZ(), data.encode());
 			}
-			int levelMinY = level.getMinBuildHeight();
-			int centerX = (tilePosX * TILE_SIZE) + TILE_SIZE / 2;
-			int centerZ = (tilePosY * TILE_SIZE) + TILE_SIZE / 2;
-
-			var pixels = tex.getPixels();
-			int size = pixels.getWidth();
-			int texHalfWidth = size / 2;
-
-			BlockPos.MutableBlockPos mutableBlockPos = new BlockPos.MutableBlockPos();
-			BlockPos.MutableBlockPos mutableBlockPos2 = new BlockPos.MutableBlockPos();
-			boolean updated = false;
-			for (int x = 0; x < size; x++) {
-				double d = 0;
-				for (int z = -1; z < size; z++) {
-					int chunkX = (centerX + x - texHalfWidth);
-					int chunkZ = (centerZ + z - texHalfWidth);
-
-					int fluidDepth = 0;
-					double e = 0.0;
-					mutableBlockPos.set(chunkX, 0, chunkZ);
-					ChunkAccess levelChunk;
-					int y;
-					if (z < 0 || z >= TILE_SIZE) {
-						mutableBlockPos.setZ(chunkZ + 1);
-					}
-					levelChunk = chunk.chunk();
-					y = levelChunk.getHeight(Heightmap.Types.WORLD_SURFACE, mutableBlockPos.getX(), mutableBlockPos.getZ()) + 1;
-					if (!atSurface) {
-						y = Math.min(y, caveY);
-					}
-					BlockState blockState;
-					if (y <= levelMinY) {
-						blockState = Blocks.AIR.defaultBlockState();
-					} else {
-						do {
-							mutableBlockPos.setY(--y);
-							blockState = levelChunk.getBlockState(mutableBlockPos);
-						} while (blockState.getMapColor(level, mutableBlockPos) == MapColor.NONE && y > levelMinY);
-
-						if (y > levelMinY && !blockState.getFluidState().isEmpty()) {
-							int highestFullBlockY = y - 1;
-							mutableBlockPos2.set(mutableBlockPos);
-
-							BlockState blockState2;
-							do {
-								mutableBlockPos2.setY(highestFullBlockY--);
-								blockState2 = levelChunk.getBlockState(mutableBlockPos2);
-								fluidDepth++;
-							} while (highestFullBlockY > levelMinY && !blockState2.getFluidState().isEmpty());
-
-							FluidState fluidState = blockState.getFluidState();
-							blockState = !fluidState.isEmpty() && !blockState.isFaceSturdy(level, mutableBlockPos, Direction.UP) ? fluidState.createLegacyBlock() : blockState;
-						}
-					}
+		}
 
-					e += y;
-					var mapColor = blockState.getMapColor(level, mutableBlockPos);
-
-					int color;
-					if (mapColor == MapColor.WATER) {
-						var floorBlock = levelChunk.getBlockState(mutableBlockPos2);
-						var floorColor = floorBlock.getMapColor(level, mutableBlockPos2).col;
-						int biomeColor = mapColor.col; //BiomeColors.getAverageWaterColor(level, mutableBlockPos);
-						float shade = level.getShade(Direction.UP, true);
-						int waterColor = ARGB.fromABGR(biomeColor);
-						waterColor = ARGB.colorFromFloat(1f, ARGB.redFloat(waterColor) * shade, ARGB.greenFloat(waterColor) * shade, ARGB.blueFloat(waterColor) * shade);
-						waterColor = ARGB.average(waterColor, ARGB.scaleRGB(floorColor, 1f - fluidDepth / 15f));
-						color = waterColor;
-					} else {
-						double f = (e - d) * 4.0 / (1 + 4) + ((x + z & 1) - 0.5) * 0.4;
-						MapColor.Brightness brightness;
-						if (f > 0.6) {
-							brightness = MapColor.Brightness.HIGH;
-						} else if (f < -0.6) {
-							brightness = MapColor.Brightness.LOW;
-						} else {
-							brightness = MapColor.Brightness.NORMAL;
-						}
-						color = mapColor.calculateRGBColor(brightness);
-					}
+		/**
+		 * Has to be called on the render thread, as it may open a new atlas page.
+		 */
+		public static Tile create(TileAtlas<AtlasPage> atlas, TileLod lod, int x, int y, TileData data) {
+			int slot = atlas.allocate();
+			atlas.fill(slot, Colors.BLACK.toInt());
+			return new Tile(x, y, atlas, lod, slot, data);
+		}
 
-					d = e;
+		public static Tile read(TileAtlas<AtlasPage> atlas, TileLod lod, Path dir, int x, int y, Level level) throws IOException {
+			return create(atlas, lod, x, y, readData(dir, x, y, level));
+		}
 
-					if (z >= 0 && Integer.rotateRight(pixels.getPixelRGBA(x, z), 4) != color) {
-						pixels.setPixelRGBA(x, z, ARGB.opaque(color));
-						updated = true;
-					}
-				}
+		/**
+		 * Reads a saved tile from its region, moving it there first if it was saved to a file of its own.
+		 */
+		public static TileData readData(Path dir, int x, int y, Level level) throws IOException {
+			var storage = TileRegionStorage.of(dir);
+			var stored = storage.read(x, y);
+			if (stored != null) {
+				return TileData.decode(stored);
+			}
+			var looseFile = looseFile(dir, x, y);
+			var legacyFile = legacyFile(dir, x, y);
+			TileData data;
+			if (Files.exists(looseFile)) {
+				data = TileData.read(looseFile);
+			} else if (Files.exists(legacyFile)) {
+				var chunk = LevelChunkStorage.Entry.read(legacyFile, level).chunk();
+				var sampler = new MapColumnSampler();
+				data = new TileData(x, y);
+				data.capture(sampler.sample(level, chunk, MapColumnCache.SURFACE), sampler.sampleFloors(level, chunk));
+			} else {
+				// nothing was ever saved for the tile
+				return new TileData(x, y);
 			}
+			storage.write(x, y, data.encode());
+			Files.deleteIfExists(looseFile);
+			Files.deleteIfExists(legacyFile);
+			return data;
+		}
 
-			if (updated) {
-				Minecraft.getInstance().submit(tex::upload);
+		public void update(int caveY, boolean atSurface, Level level) {
+			int columnsY = atSurface ? MapColumnCache.SURFACE : caveY;
+			var sampler = new MapColumnSampler();
+			var cache = AxolotlClientWaypointsCommon.COLUMN_CACHE;
+			var columns = sampler.getColumns(level, tilePosX, tilePosY, columnsY);
+			// the northern edge is shaded against the chunk to the north, also once either of them is no longer loaded
+			data.captureNorthEdge(cache.get(tilePosX, tilePosY - 1, MapColumnCache.SURFACE), cache.getFloors(tilePosX, tilePosY - 1));
+			if (columns != null) {
+				data.capture(columns, cache.getFloors(tilePosX, tilePosY));
+			} else {
+				columns = data.columns(columnsY);
+				if (columns == null) {
+					atlas.fill(slot, Colors.BLACK.toInt());
+					lod.markDirty(tilePosX, tilePosY);
+					return;
+				}
 			}
+
+			boolean biomeBlending = AxolotlClientWaypoints.MINIMAP.enableBiomeBlending.get();
+			atlas.write(slot, sampler.chunkColors(level, columns, biomeBlending));
+			lod.markDirty(tilePosX, tilePosY);
 		}
 	}
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.Heightmap;
+
+public class LevelSurfaceTracker extends SurfaceTracker<ClientLevel> {
+	private final BlockPos.MutableBlockPos mutableBlockPos = new BlockPos.MutableBlockPos();
+
+	@Override
+	protected boolean computeAtSurface(ClientLevel level, int x, int y, int z) {
+		var chunk = level.getChunk(SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(z));
+		var surface = chunk.getHeight(Heightmap.Types.WORLD_SURFACE, x, z);
+		if (surface + 1 <= y) {
+			return true;
+		}
+		mutableBlockPos.set(x, surface, z);
+		int solidBlocksAbovePlayer = 0;
+		while (solidBlocksAbovePlayer <= 3 && surface > y && surface > level.getMinBuildHeight()) {
+			BlockState state = chunk.getBlockState(mutableBlockPos);
+			mutableBlockPos.setY(surface--);
+			if (!(state.propagatesSkylightDown(level, mutableBlockPos.below()) || !state.canOcclude() || !state.isViewBlocking(level, mutableBlockPos))) {
+				solidBlocksAbovePlayer++;
+			}
+		}
+		return solidBlocksAbovePlayer <= 2;
+	}
+}
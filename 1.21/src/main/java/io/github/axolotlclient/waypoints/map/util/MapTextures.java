@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.nio.IntBuffer;
+
+import io.github.axolotlclient.waypoints.mixin.NativeImageAccessor;
+import net.minecraft.client.renderer.texture.DynamicTexture;
+import org.lwjgl.system.MemoryUtil;
+
+public class MapTextures {
+
+	/**
+	 * Copies the dirty rectangles of the framebuffer into the texture's image and uploads only those regions.
+	 * Has to be called on the render thread.
+	 */
+	public static void upload(DynamicTexture tex, MapFramebuffer framebuffer) {
+		synchronized (framebuffer) {
+			if (!framebuffer.isDirty()) {
+				return;
+			}
+			var image = tex.getPixels();
+			int stride = framebuffer.getWidth();
+			int[] source = framebuffer.getPixels();
+			IntBuffer target = MemoryUtil.memIntBuffer(((NativeImageAccessor) (Object) image).getPixels(), image.getWidth() * image.getHeight());
+			tex.bind();
+			framebuffer.forEachDirty((x, y, width, height) -> {
+				for (int row = y; row < y + height; row++) {
+					target.put(x + row * stride, source, x + row * stride, width);
+				}
+				image.upload(0, x, y, x, y, width, height, false, false, false, false);
+			});
+			framebuffer.clearDirty();
+		}
+	}
+}
@@ -22,9 +22,13 @@
 
 package io.github.axolotlclient.waypoints.mixin;
 
+import io.github.axolotlclient.waypoints.AxolotlClientWaypoints;
+import io.github.axolotlclient.waypoints.AxolotlClientWaypointsCommon;
 import io.github.axolotlclient.waypoints.map.WorldMapScreen;
 import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.core.BlockPos;
 import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.state.BlockState;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
@@ -35,6 +39,19 @@ public class ClientLevelMixin {
 
 	@Inject(method = "onChunkLoaded", at = @At("TAIL"))
 	private void onChunkLoaded(ChunkPos chunkPos, CallbackInfo ci) {
+		AxolotlClientWaypointsCommon.COLUMN_CACHE.invalidate(chunkPos.x, chunkPos.z);
+		AxolotlClientWaypointsCommon.COLUMN_CACHE.invalidateBiomes(chunkPos.x, chunkPos.z);
+		AxolotlClientWaypoints.MINIMAP.markBiomesDirty(chunkPos.x, chunkPos.z);
+		AxolotlClientWaypoints.SURFACE_TRACKER.invalidateChunk(chunkPos.x, chunkPos.z);
 		WorldMapScreen.saveLoadedChunkTile(chunkPos);
 	}
+
+	@Inject(method = "sendBlockUpdated", at = @At("HEAD"))
+	private void onBlockUpdated(BlockPos pos, BlockState oldState, BlockState newState, int flags, CallbackInfo ci) {
+		if (oldState != newState) {
+			AxolotlClientWaypointsCommon.COLUMN_CACHE.invalidateBlock(pos.getX(), pos.getZ());
+			AxolotlClientWaypoints.MINIMAP.markDirty(pos.getX(), pos.getZ());
+			AxolotlClientWaypoints.SURFACE_TRACKER.invalidate(pos.getX(), pos.getZ());
+		}
+	}
 }
@@ -22,40 +22,75 @@
 
 package io.github.axolotlclient.waypoints.map;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import com.mojang.blaze3d.platform.GlStateManager;
 import io.github.axolotlclient.AxolotlClientConfig.impl.util.DrawUtil;
 import io.github.axolotlclient.bridge.render.AxoRenderContext;
 import io.github.axolotlclient.waypoints.AxolotlClientWaypoints;
 import io.github.axolotlclient.waypoints.AxolotlClientWaypointsCommon;
 import io.github.axolotlclient.waypoints.HudCreator;
-import io.github.axolotlclient.waypoints.util.ARGB;
+import io.github.axolotlclient.waypoints.map.util.DirtyColumns;
+import io.github.axolotlclient.waypoints.map.util.EdgePrefetcher;
+import io.github.axolotlclient.waypoints.map.util.MapColumnCache;
+import io.github.axolotlclient.waypoints.map.util.MapColumnSampler;
+import io.github.axolotlclient.waypoints.map.util.MapFramebuffer;
+import io.github.axolotlclient.waypoints.map.util.MapOverlay;
+import io.github.axolotlclient.waypoints.map.util.MapRasterizer;
+import io.github.axolotlclient.waypoints.map.util.MapSnapshot;
+import io.github.axolotlclient.waypoints.map.util.MapTextures;
 import io.github.axolotlclient.waypoints.waypoints.Waypoint;
-import net.minecraft.block.Blocks;
-import net.minecraft.block.material.MapColor;
-import net.minecraft.block.state.BlockState;
+import lombok.extern.slf4j.Slf4j;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiElement;
 import net.minecraft.client.render.Window;
 import net.minecraft.client.render.texture.DynamicTexture;
-import net.minecraft.client.world.color.BiomeColors;
 import net.minecraft.resource.Identifier;
-import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
-import net.minecraft.world.chunk.WorldChunk;
+import net.minecraft.world.World;
 import org.joml.Vector3f;
 
+@Slf4j
 public class Minimap extends MinimapCommon {
 
 	private static final Identifier texLocation = AxolotlClientWaypoints.rl("minimap");
 	public static final Identifier arrowLocation = AxolotlClientWaypoints.rl("textures/gui/sprites/arrow.png");
-	private int[] pixels;
+	private static final ExecutorService RASTER_WORKER = Executors.newSingleThreadExecutor(r -> {
+		var thread = new Thread(r, "Minimap Rasterizer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private MapFramebuffer framebuffer;
+	private final MapColumnSampler sampler = new MapColumnSampler();
+	private final EdgePrefetcher prefetcher = new EdgePrefetcher();
+	private MapColumnCache.ChunkColumns[] drawnChunks = new MapColumnCache.ChunkColumns[(viewDistance >> (4 - MAX_ZOOM_OUT)) * (viewDistance >> (4 - MAX_ZOOM_OUT))];
+	private int[] drawnRevisions = new int[drawnChunks.length];
+	private final Set<Long> pendingChunks = new HashSet<>(), pendingSamples = new HashSet<>();
+	private int workGeneration;
+	private int[] frontBuffer = new int[viewDistance * viewDistance], backBuffer = new int[viewDistance * viewDistance];
+	private CompletableFuture<RasterFrame> pendingFrame;
+	private long ticks, displayedTick;
 	public long updateDuration = -1;
 	private DynamicTexture tex;
 	private int mapCenterX, mapCenterZ;
+	private World lastLevel;
+	private int lastCaveY;
+	private boolean viewValid, lastBiomeBlending;
 	private boolean usingHud;
 	public boolean allowCaves = true;
 
 	private final Minecraft minecraft = Minecraft.getInstance();
+	private final MapOverlay overlay = new MapOverlay(label -> minecraft.textRenderer.getWidth(label));
+	private List<Waypoint> waypoints = List.of();
+
+	private record RasterFrame(int centerX, int centerZ, int zoom, long tick, long duration, MapSnapshot snapshot) {
+	}
 
 	public void init() {
 		super.init();
@@ -71,12 +106,35 @@ public boolean isEnabled() {
 	}
 
 	public void setup() {
-		minecraft.getTextureManager().register(texLocation, tex = new DynamicTexture(viewDistance, viewDistance));
-		pixels = tex.getPixels();
+		createTexture();
 		this.x = new Window(minecraft).getWidth() - size - 10;
 		this.y = 10;
 	}
 
+	private void createTexture() {
+		minecraft.getTextureManager().register(texLocation, tex = new DynamicTexture(viewDistance, viewDistance));
+		framebuffer = new MapFramebuffer(viewDistance, viewDistance, tex.getPixels());
+	}
+
+	/**
+	 * Reallocates the texture and all buffers for another view distance. The view is drawn from scratch afterwards.
+	 */
+	private void resize(int viewDistance) {
+		this.viewDistance = viewDistance;
+		dirtyColumns = new DirtyColumns(viewDistance);
+		drawnChunks = new MapColumnCache.ChunkColumns[(viewDistance >> (4 - MAX_ZOOM_OUT)) * (viewDistance >> (4 - MAX_ZOOM_OUT))];
+		drawnRevisions = new int[drawnChunks.length];
+		frontBuffer = new int[viewDistance * viewDistance];
+		backBuffer = new int[viewDistance * viewDistance];
+		// a frame that is still being drawn has the old size
+		pendingFrame = null;
+		viewValid = false;
+		if (tex != null) {
+			GlStateManager.deleteTexture(tex.getGlId());
+		}
+		createTexture();
+	}
+
 	public void renderMapOverlay() {
 		if (usingHud) {
 			return;
@@ -106,6 +164,7 @@ public void renderMap() {
 		if (!isEnabled()) {
 			return;
 		}
+		MapTextures.upload(tex, framebuffer);
 		GlStateManager.color4f(1, 1, 1, 1);
 		GlStateManager.pushMatrix();
 		{
@@ -120,13 +179,19 @@ public void renderMap() {
 			}
 			GlStateManager.scalef((float) Math.sqrt(2), (float) Math.sqrt(2), 1);
 			GlStateManager.scalef(mapScale.get(), mapScale.get(), 1);
-			GlStateManager.translatef(-radius, -radius, 0);
+			GlStateManager.scalef((float) size / resolution, (float) size / resolution, 1);
+			GlStateManager.translatef(-viewDistance / 2f, -viewDistance / 2f, 0);
 			float offX, offZ;
-			offX = -(float) (minecraft.player.x - mapCenterX);
-			offZ = -(float) (minecraft.player.z - mapCenterZ);
+			offX = -(float) (minecraft.player.x / (1 << zoom) - mapCenterX);
+			offZ = -(float) (minecraft.player.z / (1 << zoom) - mapCenterZ);
 			GlStateManager.translatef(offX, offZ, 0);
 			minecraft.getTextureManager().bind(texLocation);
-			GuiElement.drawTexture(0, 0, 0, 0, viewDistance, viewDistance, size, size);
+			int texX = (mapCenterX - viewDistance / 2) & (viewDistance - 1);
+			int texZ = (mapCenterZ - viewDistance / 2) & (viewDistance - 1);
+			drawRing(0, 0, texX, texZ, viewDistance - texX, viewDistance - texZ);
+			drawRing(viewDistance - texX, 0, 0, texZ, texX, viewDistance - texZ);
+			drawRing(0, viewDistance - texZ, texX, 0, viewDistance - texX, texZ);
+			drawRing(viewDistance - texX, viewDistance - texZ, 0, 0, texX, texZ);
 			GlStateManager.popMatrix();
 			DrawUtil.popScissor();
 		}
@@ -134,30 +199,18 @@ public void renderMap() {
 		if (minimapOutline.get() && !usingHud) {
 			DrawUtil.outlineRect(x, y, size, size, outlineColor.get().toInt());
 		}
+		overlay.begin(x, y, size, mapScale.get() * (float) size / resolution, zoom, lockMapToNorth.get() ? 0 : (float) -Math.toRadians(minecraft.player.getHeadYaw() + 180));
 		if (showWaypoints.get()) {
 			renderMapWaypoints();
 		}
 		if (showCardinalDirections.get()) {
-			Vector3f pos = new Vector3f();
-			var directions = new String[]{"N", "W", "E", "S"};
-			for (int i : new int[]{-2, 1, 2, -1}) {
-				var label = directions[i < 0 ? i + 2 : i + 1];
-				var labelWidth = minecraft.textRenderer.getWidth(label);
-				var labelHeight = minecraft.textRenderer.fontHeight;
-				AxolotlClientWaypoints.MATRIX_STACK.pushMatrix();
-				AxolotlClientWaypoints.MATRIX_STACK.identity();
-				AxolotlClientWaypoints.MATRIX_STACK.translate(x + radius, y + radius, 0);
-				if (!lockMapToNorth.get()) {
-					AxolotlClientWaypoints.MATRIX_STACK.rotate((float) -(((minecraft.player.getHeadYaw() + 180) / 180) * Math.PI), 0, 0, 1);
-				}
-				AxolotlClientWaypoints.MATRIX_STACK.translate((i % 2) * size, ((int) (i / 2f)) * size, 0);
-				pos.zero();
-				AxolotlClientWaypoints.MATRIX_STACK.transformPosition(pos);
-				AxolotlClientWaypoints.MATRIX_STACK.popMatrix();
-				pos.x = MathHelper.clamp(pos.x, x, x + size);
-				pos.y = MathHelper.clamp(pos.y, y, y + size);
+			int labelHeight = minecraft.textRenderer.fontHeight;
+			for (int i = 0; i < MapOverlay.CARDINAL_DIRECTIONS; i++) {
+				var label = MapOverlay.cardinalLabel(i);
+				int labelWidth = overlay.labelWidth(label);
+				overlay.projectCardinal(i);
 				GlStateManager.pushMatrix();
-				GlStateManager.translatef(pos.x, pos.y, pos.z);
+				GlStateManager.translatef(overlay.x(), overlay.y(), 0);
 				GlStateManager.scalef(0.5f, 0.5f, 1);
 				GuiElement.fill(-(labelWidth / 2 + 2), -(labelHeight / 2 + 2), labelWidth / 2 + 2, labelHeight / 2 + 2, 0x77888888);
 				minecraft.textRenderer.draw(label, -labelWidth / 2, -labelHeight / 2, -1);
@@ -182,167 +235,287 @@ public void renderMap() {
 
 	private void renderMapWaypoints() {
 		if (!AxolotlClientWaypoints.renderWaypoints.get()) return;
-		GlStateManager.pushMatrix();
-		Vector3f pos = new Vector3f();
-		for (Waypoint waypoint : AxolotlClientWaypoints.getCurrentWaypoints()) {
-			GlStateManager.pushMatrix();
-			float posX = (float) (waypoint.x() - minecraft.player.x);
-			float posY = (float) (waypoint.z() - minecraft.player.z);
-
-			{
-				pos.zero();
-				AxolotlClientWaypoints.MATRIX_STACK.pushMatrix();
-				AxolotlClientWaypoints.MATRIX_STACK.identity();
-				AxolotlClientWaypoints.MATRIX_STACK.translate(x, y, 0);
-				AxolotlClientWaypoints.MATRIX_STACK.translate(radius, radius, 0);
-				AxolotlClientWaypoints.MATRIX_STACK.scale((float) Math.sqrt(2), (float) Math.sqrt(2), 1);
-				AxolotlClientWaypoints.MATRIX_STACK.scale(mapScale.get(), mapScale.get(), 1);
-				if (!lockMapToNorth.get()) {
-					AxolotlClientWaypoints.MATRIX_STACK.rotate((float) -Math.toRadians(minecraft.player.headYaw + 180), 0, 0, 1);
-				}
-				AxolotlClientWaypoints.MATRIX_STACK.translate(posX, posY, 1);
-				AxolotlClientWaypoints.MATRIX_STACK.transformPosition(pos);
-				AxolotlClientWaypoints.MATRIX_STACK.popMatrix();
+		double playerX = minecraft.player.x;
+		double playerZ = minecraft.player.z;
+		int textHeight = minecraft.textRenderer.fontHeight;
+		for (Waypoint waypoint : waypoints) {
+			if (!overlay.project(waypoint.x() - playerX, waypoint.z() - playerZ)) {
+				continue;
 			}
-
-			{
-				pos.x = MathHelper.clamp(pos.x, x, x + size);
-				pos.y = MathHelper.clamp(pos.y, y, y + size);
-				GlStateManager.translatef(pos.x, pos.y, pos.z());
-			}
-
+			int textWidth = overlay.labelWidth(waypoint.display());
+			GlStateManager.pushMatrix();
+			GlStateManager.translatef(overlay.x(), overlay.y(), 1);
 			GlStateManager.color3f(1, 1, 1);
-			int textWidth = minecraft.textRenderer.getWidth(waypoint.display());
-			int textHeight = minecraft.textRenderer.fontHeight;
 			GuiElement.fill(-(textWidth / 2) - Waypoint.displayXOffset(), -(textHeight / 2) - Waypoint.displayYOffset(), (textWidth / 2) + Waypoint.displayXOffset(), (textHeight / 2) + Waypoint.displayYOffset(), waypoint.color().toInt());
 			minecraft.textRenderer.draw(waypoint.display(), -(textWidth / 2f), -textHeight / 2f, -1, false);
 			GlStateManager.popMatrix();
 		}
-		GlStateManager.popMatrix();
 	}
 
-	private static int blockToSectionCoord(int c) {
-		return c >> 4;
+	private void drawRing(int x, int y, int u, int v, int width, int height) {
+		if (width > 0 && height > 0) {
+			GuiElement.drawTexture(x, y, u, v, width, height, viewDistance, viewDistance);
+		}
 	}
 
 	public void updateMapView() {
+		var mapWork = AxolotlClientWaypointsCommon.MAP_WORK;
+		if (mapWork.getGeneration() != workGeneration) {
+			// the scheduler dropped the queued jobs, so they have to be queued again
+			workGeneration = mapWork.getGeneration();
+			pendingChunks.clear();
+			pendingSamples.clear();
+			viewValid = false;
+		}
 		if (!isEnabled()) {
 			updateDuration = -1;
+			viewValid = false;
 			return;
 		}
-		long start = System.currentTimeMillis();
+		resolution = Integer.parseInt(mapResolution.get());
+		int viewDistance = getConfiguredViewDistance();
+		if (viewDistance != this.viewDistance) {
+			resize(viewDistance);
+		}
+		if (showWaypoints.get() && AxolotlClientWaypoints.renderWaypoints.get()) {
+			// sorted by distance once per tick instead of on every frame
+			waypoints = AxolotlClientWaypoints.getCurrentWaypoints();
+		}
+		long start = System.nanoTime();
+		ticks++;
 		int centerX = (int) (minecraft.player.x + 0.5);
 		int centerZ = (int) (minecraft.player.z + 0.5);
+
+		var level = minecraft.world;
+		int caveY = isAtSurface(level, centerX, centerZ) ? MapColumnCache.SURFACE : (int) (minecraft.player.y + 0.5);
+		boolean biomeBlending = enableBiomeBlending.get();
+		// the view is drawn in map pixels, which cover several blocks when zoomed out
+		int zoom = zoomOut.get();
+		if (asyncRasterization.get()) {
+			updateMapViewAsync(level, centerX >> zoom, centerZ >> zoom, zoom, caveY, biomeBlending);
+		} else {
+			updateMapView(level, centerX >> zoom, centerZ >> zoom, zoom, caveY, biomeBlending);
+		}
+		updateDuration = System.nanoTime() - start;
+		recordCost(updateDuration);
+	}
+
+	private void updateMapView(World level, int centerX, int centerZ, int zoom, int caveY, boolean biomeBlending) {
+		staleTicks = 0;
+		int size = viewDistance;
+		int minX = centerX - size / 2;
+		int minZ = centerZ - size / 2;
+		int dx = centerX - mapCenterX;
+		int dz = centerZ - mapCenterZ;
 		mapCenterX = centerX;
 		mapCenterZ = centerZ;
-		int texHalfWidth = size / 2;
-
-		BlockPos.Mutable mutableBlockPos = new BlockPos.Mutable();
-		BlockPos.Mutable mutableBlockPos2 = new BlockPos.Mutable();
+		if (!(minecraft.screen instanceof WorldMapScreen)) {
+			AxolotlClientWaypointsCommon.MAP_WORK.setFocus(centerX << zoom, centerZ << zoom);
+		}
 
-		var level = minecraft.world;
-		var centerChunk = level.getChunkAt(blockToSectionCoord(centerX), blockToSectionCoord(centerZ));
-		var surface = centerChunk.getHeight(centerX & 15, centerZ & 15);
-		mutableBlockPos.set(centerX, surface, centerZ);
-		int solidBlocksAbovePlayer = 0;
-		boolean atSurface = false;
-		if (level.dimension.isDark()) {
-			atSurface = (int) (minecraft.player.y + 0.5) >= level.getHeight();
-		} else if (surface + 1 <= (int) (minecraft.player.y + 0.5)) {
-			atSurface = true;
+		boolean teleported = level != lastLevel || zoom != this.zoom || Math.abs(dx) >= size || Math.abs(dz) >= size;
+		if (!viewValid || teleported || caveY != lastCaveY || biomeBlending != lastBiomeBlending) {
+			this.zoom = zoom;
+			Arrays.fill(drawnChunks, null);
+			prefetcher.clear();
+			dirtyColumns.clear();
+			if (teleported) {
+				// the old contents are unrelated to the new view, better show nothing until it is drawn
+				clearRegion(minX, minZ, size, size);
+			}
+			scheduleRegion(minX, minZ, size, size);
+			viewValid = true;
+			lastLevel = level;
+			lastCaveY = caveY;
+			lastBiomeBlending = biomeBlending;
 		} else {
-			while (solidBlocksAbovePlayer <= 3 && surface > (int) (minecraft.player.y + 0.5) && surface > WorldMapScreen.MIN_BUILD_HEIGHT) {
-				BlockState state = centerChunk.getBlockState(mutableBlockPos);
-				mutableBlockPos.set(centerX, surface--, centerZ);
-				if (!(state.getBlock().isTranslucent() || !state.getBlock().isOpaque() || !state.getBlock().isViewBlocking())) {
-					solidBlocksAbovePlayer++;
+			// the texture is a ring buffer addressed by map pixel coordinates, so only the strips that scrolled
+			// into view need to be redrawn. Until their jobs ran they would show the opposite edge of the view.
+			if (dx != 0) {
+				int stripX = dx > 0 ? minX + size - dx : minX;
+				clearRegion(stripX, minZ, Math.abs(dx), size);
+				scheduleRegion(stripX, minZ, Math.abs(dx), size);
+			}
+			if (dz != 0) {
+				int stripX = dx > 0 ? minX : minX - dx;
+				int stripZ = dz > 0 ? minZ + size - dz : minZ;
+				clearRegion(stripX, stripZ, size - Math.abs(dx), Math.abs(dz));
+				scheduleRegion(stripX, stripZ, size - Math.abs(dx), Math.abs(dz));
+			}
+			// everything else only changes through block updates and chunk loads
+			if (!dirtyColumns.isEmpty()) {
+				int mask = viewDistance - 1;
+				int shift = 4 - zoom;
+				dirtyColumns.drain((texX, texZ) -> scheduleChunk((minX + ((texX - minX) & mask)) >> shift, (minZ + ((texZ - minZ) & mask)) >> shift));
+			}
+		}
+		prefetch(level, caveY, biomeBlending);
+	}
+
+	/**
+	 * Prepares the columns and colors of the chunks the view is about to scroll over in the idle time
+	 * of the map work budget, so the strips moving into view only have to be copied.
+	 */
+	private void prefetch(World level, int caveY, boolean biomeBlending) {
+		var mapWork = AxolotlClientWaypointsCommon.MAP_WORK;
+		mapWork.clearIdle();
+		prefetcher.predict(minecraft.player.x, minecraft.player.z, mapCenterX, mapCenterZ, viewDistance, zoom, (chunkX, chunkZ) ->
+			mapWork.submitIdle((chunkX << 4) + 8, (chunkZ << 4) + 8, () -> {
+				var columns = sampler.getColumns(level, chunkX, chunkZ, caveY);
+				if (columns != null) {
+					sampler.chunkColors(level, columns, biomeBlending);
+					prefetcher.markPrefetched(chunkX, chunkZ);
 				}
+			}));
+	}
+
+	private void updateMapViewAsync(World level, int centerX, int centerZ, int zoom, int caveY, boolean biomeBlending) {
+		// the synchronous path has to start over once it takes back control of the texture
+		viewValid = false;
+		if (pendingFrame != null) {
+			if (!pendingFrame.isDone()) {
+				staleTicks = (int) (ticks - displayedTick);
+				return;
 			}
-			if (solidBlocksAbovePlayer <= 2) {
-				atSurface = true;
+			var frame = pendingFrame.join();
+			pendingFrame = null;
+			if (frame != null) {
+				int[] buffer = frontBuffer;
+				frontBuffer = backBuffer;
+				backBuffer = buffer;
+				mapCenterX = frame.centerX();
+				mapCenterZ = frame.centerZ();
+				this.zoom = frame.zoom();
+				displayedTick = frame.tick();
+				drawDuration += frame.duration();
+				frame.snapshot().publish();
+				framebuffer.copyFrom(frontBuffer);
+				MapTextures.upload(tex, framebuffer);
 			}
 		}
+		staleTicks = (int) (ticks - displayedTick);
+
+		int[] target = backBuffer;
+		long tick = ticks;
+		int viewDistance = this.viewDistance;
+		// the worker only shades and copies this snapshot. Sampling chunks, cave floors included, is left to
+		// the client thread, missing chunks are sampled through the map work budget and show up in a later frame.
+		var snapshot = sampler.snapshot(level, centerX - viewDistance / 2, centerZ - viewDistance / 2, viewDistance, zoom, biomeBlending);
+		var cache = AxolotlClientWaypointsCommon.COLUMN_CACHE;
+		cache.setLevel(level);
+		snapshot.capture(cache, caveY, (chunkX, chunkZ) -> scheduleSample(level, chunkX, chunkZ, caveY, biomeBlending));
+		pendingFrame = CompletableFuture.supplyAsync(() -> {
+			long start = System.nanoTime();
+			snapshot.draw(target);
+			return new RasterFrame(centerX, centerZ, zoom, tick, System.nanoTime() - start, snapshot);
+		}, RASTER_WORKER).exceptionally(e -> {
+			log.error("Failed to rasterize the minimap!", e);
+			return null;
+		});
+	}
 
-		boolean updated = false;
-		for (int x = 0; x < size; x++) {
-			double d = 0.0;
-			for (int z = -1; z < size; z++) {
-				int chunkX = (centerX + x - texHalfWidth);
-				int chunkZ = (centerZ + z - texHalfWidth);
-				WorldChunk levelChunk = level.getChunkAt(blockToSectionCoord(chunkX), blockToSectionCoord(chunkZ));
-				if (levelChunk != null) {
-					int fluidDepth = 0;
-					double e = 0.0;
-					mutableBlockPos.set(chunkX, 0, chunkZ);
-					int y = levelChunk.getHeight(mutableBlockPos.getX() & 15, mutableBlockPos.getZ() & 15) + 1;
-					if (!atSurface) {
-						y = Math.min(y, (int) (minecraft.player.y + 0.5));
-					}
-					BlockState blockState;
-					if (y <= WorldMapScreen.MIN_BUILD_HEIGHT) {
-						blockState = Blocks.AIR.defaultState();
-					} else {
-						do {
-							mutableBlockPos.set(chunkX, --y, chunkZ);
-							blockState = levelChunk.getBlockState(mutableBlockPos);
-						} while (blockState.getBlock().getMapColor(blockState) == MapColor.AIR && y > WorldMapScreen.MIN_BUILD_HEIGHT);
-
-						if (y > WorldMapScreen.MIN_BUILD_HEIGHT && blockState.getBlock().getMaterial().isLiquid()) {
-							int highestFullBlockY = y - 1;
-							mutableBlockPos2.set(mutableBlockPos.getX(), mutableBlockPos.getY(), mutableBlockPos.getZ());
-
-							BlockState blockState2;
-							do {
-								mutableBlockPos2.set(mutableBlockPos.getX(), highestFullBlockY--, mutableBlockPos.getZ());
-								blockState2 = levelChunk.getBlockState(mutableBlockPos2);
-								fluidDepth++;
-							} while (highestFullBlockY > WorldMapScreen.MIN_BUILD_HEIGHT && blockState2.getBlock().getMaterial().isLiquid());
-						}
-					}
-
-					e += y;
-					var mapColor = blockState.getBlock().getMapColor(blockState);
-
-					int color;
-					if (mapColor == MapColor.WATER) {
-						var floorBlock = levelChunk.getBlockState(mutableBlockPos2);
-						var floorColor = floorBlock.getBlock().getMapColor(floorBlock).color;
-						int biomeColor = enableBiomeBlending.get() ? BiomeColors.getWaterColor(level, mutableBlockPos) : mapColor.color;
-						float shade = 1.0f;
-						int waterColor = biomeColor;
-						waterColor = ARGB.colorFromFloat(1f, ARGB.redFloat(waterColor) * shade, ARGB.greenFloat(waterColor) * shade, ARGB.blueFloat(waterColor) * shade);
-						waterColor = ARGB.average(waterColor, ARGB.scaleRGB(floorColor, 1f - fluidDepth / 15f));
-						color = waterColor;
-					} else {
-						double f = (e - d) * 4.0 / (1 + 4) + ((x + z & 1) - 0.5) * 0.4;
-						int brightness;
-						if (f > 0.6) {
-							brightness = 2;
-						} else if (f < -0.6) {
-							brightness = 0;
-						} else {
-							brightness = 1;
-						}
-						color = mapColor.getColor(brightness);
-					}
-
-					d = e;
-
-					if (z >= 0 && pixels[x + z * size] != color) {
-						pixels[x + z * size] = ARGB.opaque(color);
-						updated = true;
-					}
-				} else {
-					if (z >= 0 && pixels[x + z * size] != 0) {
-						pixels[x + z * size] = ARGB.opaque(0);
-						updated = true;
-					}
+	/**
+	 * Samples a chunk that is missing from a snapshot, so it is cached by the time the next frame is captured.
+	 */
+	private void scheduleSample(World level, int chunkX, int chunkZ, int caveY, boolean biomeBlending) {
+		long key = MapColumnCache.pack(chunkX, chunkZ);
+		if (pendingSamples.add(key)) {
+			AxolotlClientWaypointsCommon.MAP_WORK.submit((chunkX << 4) + 8, (chunkZ << 4) + 8, () -> {
+				pendingSamples.remove(key);
+				if (sampler.getColumns(level, chunkX, chunkZ, caveY) != null && biomeBlending) {
+					sampler.getBiomeColors(level, chunkX, chunkZ);
 				}
+			});
+		}
+	}
+
+	private boolean isAtSurface(World level, int centerX, int centerZ) {
+		if (level.dimension.isDark()) {
+			return (int) (minecraft.player.y + 0.5) >= level.getHeight();
+		}
+		return AxolotlClientWaypoints.SURFACE_TRACKER.isAtSurface(level, centerX, (int) (minecraft.player.y + 0.5), centerZ);
+	}
+
+	private void clearRegion(int mapX, int mapZ, int width, int height) {
+		int shift = 4 - zoom;
+		int chunkMask = (viewDistance >> shift) - 1;
+		MapRasterizer.clear(mapX, mapZ, mapX + width, mapZ + height, framebuffer);
+		for (int chunkZ = mapZ >> shift; chunkZ <= (mapZ + height - 1) >> shift; chunkZ++) {
+			for (int chunkX = mapX >> shift; chunkX <= (mapX + width - 1) >> shift; chunkX++) {
+				drawnChunks[(chunkX & chunkMask) + (chunkZ & chunkMask) * (chunkMask + 1)] = null;
 			}
 		}
-		if (updated) {
-			tex.upload();
+	}
+
+	private void scheduleRegion(int mapX, int mapZ, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		int shift = 4 - zoom;
+		for (int chunkZ = mapZ >> shift; chunkZ <= (mapZ + height - 1) >> shift; chunkZ++) {
+			for (int chunkX = mapX >> shift; chunkX <= (mapX + width - 1) >> shift; chunkX++) {
+				scheduleChunk(chunkX, chunkZ);
+			}
+		}
+	}
+
+	private void scheduleChunk(int chunkX, int chunkZ) {
+		if (pendingChunks.add(MapColumnCache.pack(chunkX, chunkZ))) {
+			AxolotlClientWaypointsCommon.MAP_WORK.submit((chunkX << 4) + 8, (chunkZ << 4) + 8, () -> drawChunk(chunkX, chunkZ));
+		}
+	}
+
+	private void drawChunk(int chunkX, int chunkZ) {
+		pendingChunks.remove(MapColumnCache.pack(chunkX, chunkZ));
+		if (!viewValid) {
+			return;
+		}
+		// the view may have moved since the job was queued
+		int shift = 4 - zoom;
+		int minX = mapCenterX - viewDistance / 2;
+		int minZ = mapCenterZ - viewDistance / 2;
+		int fromX = Math.max(minX, chunkX << shift);
+		int fromZ = Math.max(minZ, chunkZ << shift);
+		int toX = Math.min(minX + viewDistance, (chunkX + 1) << shift);
+		int toZ = Math.min(minZ + viewDistance, (chunkZ + 1) << shift);
+		if (fromX < toX && fromZ < toZ) {
+			long start = System.nanoTime();
+			rasterize(lastLevel, fromX, fromZ, toX - fromX, toZ - fromZ, lastCaveY);
+			drawDuration += System.nanoTime() - start;
+		}
+	}
+
+	private void rasterize(World level, int mapX, int mapZ, int width, int height, int caveY) {
+		int shift = 4 - zoom;
+		int chunkSize = 1 << shift;
+		int chunkMask = (viewDistance >> shift) - 1;
+		boolean biomeBlending = enableBiomeBlending.get();
+		int maxX = mapX + width;
+		int maxZ = mapZ + height;
+		// resolve each chunk covering the region once and draw it as a block instead of looking it up for every pixel
+		for (int chunkZ = mapZ >> shift; chunkZ <= (maxZ - 1) >> shift; chunkZ++) {
+			int fromZ = Math.max(mapZ, chunkZ << shift);
+			int toZ = Math.min(maxZ, (chunkZ + 1) << shift);
+			for (int chunkX = mapX >> shift; chunkX <= (maxX - 1) >> shift; chunkX++) {
+				int fromX = Math.max(mapX, chunkX << shift);
+				int toX = Math.min(maxX, (chunkX + 1) << shift);
+				int slot = (chunkX & chunkMask) + (chunkZ & chunkMask) * (chunkMask + 1);
+				var columns = sampler.getColumns(level, chunkX, chunkZ, caveY);
+				if (columns == null) {
+					MapRasterizer.copyChunk(null, zoom, chunkX, chunkZ, fromX, fromZ, toX, toZ, framebuffer);
+					drawnChunks[slot] = null;
+					continue;
+				}
+				// the whole block of the texture was last drawn from exactly these columns
+				if (drawnChunks[slot] == columns && drawnRevisions[slot] == columns.revision()) {
+					continue;
+				}
+				int[] colors = sampler.chunkColors(level, columns, biomeBlending);
+				MapRasterizer.copyChunk(colors, zoom, chunkX, chunkZ, fromX, fromZ, toX, toZ, framebuffer);
+				boolean complete = toX - fromX == chunkSize && toZ - fromZ == chunkSize;
+				drawnChunks[slot] = complete ? columns : null;
+				drawnRevisions[slot] = columns.revision();
+			}
 		}
-		updateDuration = System.currentTimeMillis() - start;
 	}
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import io.github.axolotlclient.waypoints.map.WorldMapScreen;
+import net.minecraft.block.state.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+public class LevelSurfaceTracker extends SurfaceTracker<World> {
+	private final BlockPos.Mutable mutableBlockPos = new BlockPos.Mutable();
+
+	@Override
+	protected boolean computeAtSurface(World level, int x, int y, int z) {
+		var chunk = level.getChunkAt(x >> 4, z >> 4);
+		var surface = chunk.getHeight(x & 15, z & 15);
+		if (surface + 1 <= y) {
+			return true;
+		}
+		mutableBlockPos.set(x, surface, z);
+		int solidBlocksAbovePlayer = 0;
+		while (solidBlocksAbovePlayer <= 3 && surface > y && surface > WorldMapScreen.MIN_BUILD_HEIGHT) {
+			BlockState state = chunk.getBlockState(mutableBlockPos);
+			mutableBlockPos.set(x, surface--, z);
+			if (!(state.getBlock().isTranslucent() || !state.getBlock().isOpaque() || !state.getBlock().isViewBlocking())) {
+				solidBlocksAbovePlayer++;
+			}
+		}
+		return solidBlocksAbovePlayer <= 2;
+	}
+}
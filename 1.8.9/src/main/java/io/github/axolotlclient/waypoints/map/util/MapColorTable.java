@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import net.minecraft.block.material.MapColor;
+import net.minecraft.block.state.BlockState;
+
+/**
+ * Map color properties of every block state, indexed by the state id chunk sections store their blocks as.
+ * Each entry packs the state's map color id, the color id shown when the state is seen from above
+ * as the top of a fluid column and the {@link #NONE}/{@link #FLUID} flags.
+ * Entries are filled in the first time a state id is encountered.
+ * The shaded variants are kept per map color, as they don't depend on the state.
+ */
+public final class MapColorTable {
+	public static final int NONE = 1 << 16, FLUID = 1 << 17;
+	private static final int RESOLVED = 1 << 18;
+	private static final int BRIGHTNESS_COUNT = 3;
+	private static final int[] colors = new int[MapColor.COLORS.length * BRIGHTNESS_COUNT];
+	private static volatile int[] states = new int[1 << 16];
+
+	public static final MapRasterizer.Palette PALETTE = new MapRasterizer.Palette() {
+		@Override
+		public int color(int colorId, int brightness) {
+			return MapColorTable.color(colorId, brightness);
+		}
+
+		@Override
+		public int baseColor(int colorId) {
+			return MapColor.COLORS[colorId].color;
+		}
+
+		@Override
+		public int waterColorId() {
+			return MapColor.WATER.id;
+		}
+	};
+
+	static {
+		for (int id = 0; id < MapColor.COLORS.length; id++) {
+			var mapColor = MapColor.COLORS[id];
+			if (mapColor != null) {
+				for (int b = 0; b < BRIGHTNESS_COUNT; b++) {
+					colors[id * BRIGHTNESS_COUNT + b] = mapColor.getColor(b);
+				}
+			}
+		}
+	}
+
+	private MapColorTable() {
+	}
+
+	/**
+	 * Drops all entries. Has to be called whenever the block state ids may have been reassigned.
+	 */
+	public static void rebuild() {
+		states = new int[1 << 16];
+	}
+
+	/**
+	 * @return the entry for the given state id or {@code 0} if it has not been resolved yet
+	 */
+	public static int get(int stateId) {
+		return states[stateId];
+	}
+
+	public static int resolve(int stateId, BlockState state) {
+		int entry = compute(state);
+		states[stateId] = entry;
+		return entry;
+	}
+
+	public static int colorId(int entry) {
+		return entry & 0xFF;
+	}
+
+	public static int surfaceColorId(int entry) {
+		return entry >> 8 & 0xFF;
+	}
+
+	public static boolean isNone(int entry) {
+		return (entry & NONE) != 0;
+	}
+
+	public static boolean isFluid(int entry) {
+		return (entry & FLUID) != 0;
+	}
+
+	public static int color(int colorId, int brightness) {
+		return colors[colorId * BRIGHTNESS_COUNT + brightness];
+	}
+
+	public static int compute(BlockState state) {
+		var mapColor = state.getBlock().getMapColor(state);
+		int entry = RESOLVED | mapColor.id | mapColor.id << 8;
+		if (mapColor == MapColor.AIR) {
+			entry |= NONE;
+		}
+		if (state.getBlock().getMaterial().isLiquid()) {
+			entry |= FLUID;
+		}
+		return entry;
+	}
+}
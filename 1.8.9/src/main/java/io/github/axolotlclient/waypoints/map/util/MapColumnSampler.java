@@ -0,0 +1,267 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import io.github.axolotlclient.waypoints.AxolotlClientWaypointsCommon;
+import io.github.axolotlclient.waypoints.map.WorldMapScreen;
+import io.github.axolotlclient.waypoints.mixin.LevelAccessor;
+import net.minecraft.block.material.MapColor;
+import net.minecraft.client.world.color.BiomeColors;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.WorldChunk;
+import net.minecraft.world.chunk.WorldChunkSection;
+
+/**
+ * Fills {@link MapColumnCache} entries from chunks and turns cached columns back into colors.
+ * Instances hold mutable scratch state and must not be shared between threads.
+ */
+public class MapColumnSampler {
+	private static final MapRasterizer RASTERIZER = new MapRasterizer(MapColorTable.PALETTE, false);
+
+	private static final byte VISIBLE = 1, INVISIBLE = 2;
+
+	private final BlockPos.Mutable mutableBlockPos = new BlockPos.Mutable();
+	private final BlockPos.Mutable mutableBlockPos2 = new BlockPos.Mutable();
+	private final ColumnFloors.Builder floorsBuilder = new ColumnFloors.Builder();
+	private int topEntry;
+	private ChunkBiomeColors biomeColors;
+
+	public MapColumnCache.ChunkColumns getColumns(World level, int chunkX, int chunkZ, int caveY) {
+		var cache = AxolotlClientWaypointsCommon.COLUMN_CACHE;
+		cache.setLevel(level);
+		var columns = cache.get(chunkX, chunkZ, caveY);
+		if (columns == null && ((LevelAccessor) level).invokeChunkLoadedAt(chunkX, chunkZ, false)) {
+			WorldChunk chunk = level.getChunkAt(chunkX, chunkZ);
+			if (!chunk.isEmpty()) {
+				columns = cache.put(sample(level, chunk, caveY));
+			}
+		}
+		return columns;
+	}
+
+	public MapColumnCache.ChunkColumns getColumns(World level, WorldChunk fallback, int caveY) {
+		var columns = getColumns(level, fallback.chunkX, fallback.chunkZ, caveY);
+		if (columns == null) {
+			columns = AxolotlClientWaypointsCommon.COLUMN_CACHE.put(sample(level, fallback, caveY));
+		}
+		return columns;
+	}
+
+	public MapColumnCache.ChunkColumns sample(World level, WorldChunk chunk, int caveY) {
+		var columns = new MapColumnCache.ChunkColumns(chunk.chunkX, chunk.chunkZ, caveY);
+		int minY = WorldMapScreen.MIN_BUILD_HEIGHT;
+		WorldChunkSection[] sections = chunk.getSections();
+		byte[] visibility = new byte[sections.length];
+		if (caveY != MapColumnCache.SURFACE) {
+			var cache = AxolotlClientWaypointsCommon.COLUMN_CACHE;
+			var floors = cache.getFloors(chunk.chunkX, chunk.chunkZ);
+			if (floors == null) {
+				floors = cache.putFloors(sampleFloors(chunk, sections, visibility, minY));
+			}
+			sampleCave(columns, floors, chunk, sections, caveY, minY);
+			return columns;
+		}
+		for (int z = 0; z < MapColumnCache.ChunkColumns.SIZE; z++) {
+			for (int x = 0; x < MapColumnCache.ChunkColumns.SIZE; x++) {
+				int y = chunk.getHeight(x, z) + 1;
+				int top = MapColor.AIR.id;
+				if (y > minY) {
+					y = findTop(chunk, sections, visibility, x, z, y, minY);
+					top = describeTop(chunk, sections, x, y, z, topEntry, minY);
+				}
+				columns.set(MapColumnCache.ChunkColumns.index(x, z), y, top & 0xFF, top >> 8 & 0xFF, top >> 16 & 0xFF);
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Collects the runs of visible blocks of every column, without going through the cache.
+	 */
+	public ColumnFloors sampleFloors(World level, WorldChunk chunk) {
+		WorldChunkSection[] sections = chunk.getSections();
+		return sampleFloors(chunk, sections, new byte[sections.length], WorldMapScreen.MIN_BUILD_HEIGHT);
+	}
+
+	private void sampleCave(MapColumnCache.ChunkColumns columns, ColumnFloors floors, WorldChunk chunk, WorldChunkSection[] sections, int caveY, int minY) {
+		for (int z = 0; z < MapColumnCache.ChunkColumns.SIZE; z++) {
+			for (int x = 0; x < MapColumnCache.ChunkColumns.SIZE; x++) {
+				int index = MapColumnCache.ChunkColumns.index(x, z);
+				int y = Math.min(chunk.getHeight(x, z) + 1, caveY);
+				if (y <= minY) {
+					columns.set(index, y, MapColor.AIR.id, 0, MapColor.AIR.id);
+					continue;
+				}
+				int run = floors.find(index, y - 1);
+				if (run < 0) {
+					columns.set(index, minY, MapColor.AIR.id, 0, MapColor.AIR.id);
+				} else if (floors.top(run) < y) {
+					columns.set(index, floors.top(run), floors.colorId(run), floors.fluidDepth(run), floors.floorColorId(run));
+				} else {
+					// the cave level cuts through this run, so the block right below it is the top block
+					y--;
+					int top = describeTop(chunk, sections, x, y, z, entryAt(chunk, sections[y >> 4], x, y, z), minY);
+					columns.set(index, y, top & 0xFF, top >> 8 & 0xFF, top >> 16 & 0xFF);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collects the runs of visible blocks of every column, for looking up the top block at any cave level.
+	 */
+	private ColumnFloors sampleFloors(WorldChunk chunk, WorldChunkSection[] sections, byte[] visibility, int minY) {
+		for (int z = 0; z < MapColumnCache.ChunkColumns.SIZE; z++) {
+			for (int x = 0; x < MapColumnCache.ChunkColumns.SIZE; x++) {
+				int y = chunk.getHeight(x, z) + 1;
+				while (y > minY) {
+					y = findTop(chunk, sections, visibility, x, z, y, minY);
+					if (MapColorTable.isNone(topEntry)) {
+						break;
+					}
+					int runTop = y;
+					int top = describeTop(chunk, sections, x, y, z, topEntry, minY);
+					while (y > minY && !MapColorTable.isNone(entryAt(chunk, sections[y - 1 >> 4], x, y - 1, z))) {
+						y--;
+					}
+					floorsBuilder.add(runTop, y, top & 0xFF, top >> 8 & 0xFF, top >> 16 & 0xFF);
+				}
+				floorsBuilder.endColumn();
+			}
+		}
+		return floorsBuilder.build(chunk.chunkX, chunk.chunkZ);
+	}
+
+	/**
+	 * Packs the color id, fluid depth and fluid floor color id of the top block found at {@code y}.
+	 */
+	private int describeTop(WorldChunk chunk, WorldChunkSection[] sections, int x, int y, int z, int entry, int minY) {
+		if (y <= minY || !MapColorTable.isFluid(entry)) {
+			return MapColorTable.colorId(entry);
+		}
+		int highestFullBlockY = y - 1;
+		int fluidDepth = 0;
+		int floorEntry;
+		do {
+			floorEntry = entryAt(chunk, sections[highestFullBlockY >> 4], x, highestFullBlockY--, z);
+			fluidDepth++;
+		} while (highestFullBlockY > minY && MapColorTable.isFluid(floorEntry));
+		return MapColorTable.surfaceColorId(entry) | Math.min(fluidDepth, 0xFF) << 8 | MapColorTable.colorId(floorEntry) << 16;
+	}
+
+	/**
+	 * Walks down from {@code y} to the first block with a map color, skipping whole sections
+	 * that cannot contain one. The entry of the block found is left in {@link #topEntry}.
+	 */
+	private int findTop(WorldChunk chunk, WorldChunkSection[] sections, byte[] visibility, int x, int z, int y, int minY) {
+		while (y > minY) {
+			int sectionIndex = y - 1 >> 4;
+			WorldChunkSection section = sections[sectionIndex];
+			int sectionBottom = Math.max(y - 1 & ~15, minY);
+			if (visibility[sectionIndex] == 0) {
+				visibility[sectionIndex] = section != null && hasMapColor(chunk, section, sectionIndex << 4) ? VISIBLE : INVISIBLE;
+			}
+			if (visibility[sectionIndex] == INVISIBLE) {
+				y = sectionBottom;
+				continue;
+			}
+			do {
+				y--;
+				int entry = entryAt(chunk, section, x, y, z);
+				if (!MapColorTable.isNone(entry)) {
+					topEntry = entry;
+					return y;
+				}
+			} while (y > sectionBottom);
+		}
+		topEntry = MapColorTable.NONE;
+		return minY;
+	}
+
+	private boolean hasMapColor(WorldChunk chunk, WorldChunkSection section, int sectionY) {
+		char[] states = section.getBlockStates();
+		for (int i = 0; i < states.length; i++) {
+			if (states[i] != 0 && !MapColorTable.isNone(entryAt(chunk, section, i & 15, sectionY + (i >> 8), i >> 4 & 15))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int entryAt(WorldChunk chunk, WorldChunkSection section, int x, int y, int z) {
+		int stateId = section == null ? 0 : section.getBlockStates()[(y & 15) << 8 | z << 4 | x];
+		int entry = MapColorTable.get(stateId);
+		if (entry == 0) {
+			mutableBlockPos2.set((chunk.chunkX << 4) + x, y, (chunk.chunkZ << 4) + z);
+			entry = MapColorTable.resolve(stateId, chunk.getBlockState(mutableBlockPos2));
+		}
+		return entry;
+	}
+
+	/**
+	 * @return the blended biome colors of a loaded chunk, or {@code null} if it is not loaded
+	 */
+	public ChunkBiomeColors getBiomeColors(World level, int chunkX, int chunkZ) {
+		var colors = biomeColors;
+		if (colors != null && !colors.isStale() && colors.chunkX() == chunkX && colors.chunkZ() == chunkZ) {
+			return colors;
+		}
+		var cache = AxolotlClientWaypointsCommon.COLUMN_CACHE;
+		colors = cache.getBiomeColors(chunkX, chunkZ);
+		if (colors == null) {
+			if (!((LevelAccessor) level).invokeChunkLoadedAt(chunkX, chunkZ, false)) {
+				return null;
+			}
+			colors = cache.putBiomeColors(sampleBiomeColors(level, level.getChunkAt(chunkX, chunkZ)));
+		}
+		return biomeColors = colors;
+	}
+
+	private ChunkBiomeColors sampleBiomeColors(World level, WorldChunk chunk) {
+		var colors = new ChunkBiomeColors(chunk.chunkX, chunk.chunkZ);
+		for (int z = 0; z < MapColumnCache.ChunkColumns.SIZE; z++) {
+			for (int x = 0; x < MapColumnCache.ChunkColumns.SIZE; x++) {
+				mutableBlockPos.set((chunk.chunkX << 4) + x, chunk.getHeight(x, z), (chunk.chunkZ << 4) + z);
+				colors.set(MapColumnCache.ChunkColumns.index(x, z), BiomeColors.getWaterColor(level, mutableBlockPos),
+					BiomeColors.getGrassColor(level, mutableBlockPos), BiomeColors.getFoliageColor(level, mutableBlockPos));
+			}
+		}
+		return colors;
+	}
+
+	/**
+	 * Returns the {@link MapMipmaps} pyramid of the chunk's colors in the format of the map textures.
+	 */
+	public int[] chunkColors(World level, MapColumnCache.ChunkColumns columns, boolean biomeBlending) {
+		var biomes = biomeBlending ? getBiomeColors(level, columns.chunkX(), columns.chunkZ()) : null;
+		return RASTERIZER.chunkColors(columns, biomes, 1.0f, biomeBlending);
+	}
+
+	/**
+	 * Starts a {@link MapSnapshot} of a minimap frame, drawn with the colors of this version.
+	 */
+	public MapSnapshot snapshot(World level, int mapX, int mapZ, int size, int zoom, boolean biomeBlending) {
+		return new MapSnapshot(RASTERIZER, 1.0f, biomeBlending, mapX, mapZ, size, zoom);
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.nio.IntBuffer;
+
+import com.mojang.blaze3d.platform.GlStateManager;
+import net.minecraft.client.render.texture.DynamicTexture;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+
+public class MapTextures {
+	private static IntBuffer uploadBuffer = BufferUtils.createIntBuffer(16 * 16);
+
+	/**
+	 * Uploads only the dirty rectangles of the framebuffer, which has to wrap the texture's pixel array.
+	 * Has to be called on the render thread.
+	 */
+	public static void upload(DynamicTexture tex, MapFramebuffer framebuffer) {
+		synchronized (framebuffer) {
+			if (!framebuffer.isDirty()) {
+				return;
+			}
+			int stride = framebuffer.getWidth();
+			int[] source = framebuffer.getPixels();
+			GlStateManager.bindTexture(tex.getGlId());
+			framebuffer.forEachDirty((x, y, width, height) -> {
+				if (uploadBuffer.capacity() < width * height) {
+					uploadBuffer = BufferUtils.createIntBuffer(stride * framebuffer.getHeight());
+				}
+				uploadBuffer.clear();
+				for (int row = y; row < y + height; row++) {
+					uploadBuffer.put(source, x + row * stride, width);
+				}
+				uploadBuffer.flip();
+				GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, x, y, width, height, GL12.GL_BGRA, GL12.GL_UNSIGNED_INT_8_8_8_8_REV, uploadBuffer);
+			});
+			framebuffer.clearDirty();
+		}
+	}
+}
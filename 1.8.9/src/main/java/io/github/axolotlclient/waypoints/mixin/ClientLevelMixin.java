@@ -22,6 +22,8 @@
 
 package io.github.axolotlclient.waypoints.mixin;
 
+import io.github.axolotlclient.waypoints.AxolotlClientWaypoints;
+import io.github.axolotlclient.waypoints.AxolotlClientWaypointsCommon;
 import io.github.axolotlclient.waypoints.map.WorldMapScreen;
 import net.minecraft.client.world.ClientWorld;
 import org.spongepowered.asm.mixin.Mixin;
@@ -34,6 +36,10 @@ public class ClientLevelMixin {
 
 	@Inject(method = "updateChunk", at = @At("TAIL"))
 	private void onChunkLoaded(int i, int j, boolean bl, CallbackInfo ci) {
+		AxolotlClientWaypointsCommon.COLUMN_CACHE.invalidate(i, j);
+		AxolotlClientWaypointsCommon.COLUMN_CACHE.invalidateBiomes(i, j);
+		AxolotlClientWaypoints.MINIMAP.markBiomesDirty(i, j);
+		AxolotlClientWaypoints.SURFACE_TRACKER.invalidateChunk(i, j);
 		WorldMapScreen.saveLoadedChunkTile(i, j);
 	}
 }
@@ -23,6 +23,7 @@
 package io.github.axolotlclient.waypoints.mixin;
 
 import io.github.axolotlclient.waypoints.AxolotlClientWaypoints;
+import io.github.axolotlclient.waypoints.map.util.MapColorTable;
 import net.minecraft.client.network.handler.ClientPlayNetworkHandler;
 import net.minecraft.network.packet.s2c.play.ChatMessageS2CPacket;
 import net.minecraft.network.packet.s2c.play.LoginS2CPacket;
@@ -36,6 +37,7 @@ public class ClientPacketListenerMixin {
 
 	@Inject(method = "handleLogin", at = @At("TAIL"))
 	private void onLogin(LoginS2CPacket loginS2CPacket, CallbackInfo ci) {
+		MapColorTable.rebuild();
 		AxolotlClientWaypoints.WAYPOINT_STORAGE.load();
 	}
 
@@ -26,6 +26,7 @@
 
 import com.llamalad7.mixinextras.sugar.Local;
 import io.github.axolotlclient.waypoints.AxolotlClientWaypoints;
+import io.github.axolotlclient.waypoints.AxolotlClientWaypointsCommon;
 import net.minecraft.client.gui.overlay.DebugOverlay;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
@@ -39,7 +40,11 @@ public class DebugOverlayMixin {
 	private void addMinimapDebugInformation(CallbackInfoReturnable<List<String>> cir, @Local List<String> lines) {
 		if (AxolotlClientWaypoints.MINIMAP.isEnabled()) {
 			lines.add("Minimap Update Time: %.2f ms".formatted(AxolotlClientWaypoints.MINIMAP.updateDuration / 1000_000f));
+			lines.add("Minimap Cost (%dpx): %s".formatted(AxolotlClientWaypoints.MINIMAP.getViewDistance(), AxolotlClientWaypoints.MINIMAP.describeCost()));
+			lines.add("Minimap Buffer Age: %d ticks".formatted(AxolotlClientWaypoints.MINIMAP.getStaleTicks()));
 		}
+		var mapWork = AxolotlClientWaypointsCommon.MAP_WORK;
+		lines.add("Map Jobs: %d pending, %d in %.2f ms".formatted(mapWork.getPendingJobs(), mapWork.getLastJobCount(), mapWork.getLastDuration() / 1000_000f));
 		lines.add("Waypoint counts: Total: %d Current: %d".formatted(AxolotlClientWaypoints.WAYPOINT_STORAGE.getWaypointCount(), AxolotlClientWaypoints.getCurrentWaypoints().size()));
 	}
 }
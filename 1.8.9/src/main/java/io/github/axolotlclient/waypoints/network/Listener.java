@@ -26,7 +26,9 @@
 import java.util.List;
 
 import io.github.axolotlclient.waypoints.AxolotlClientWaypoints;
+import io.github.axolotlclient.waypoints.AxolotlClientWaypointsCommon;
 import io.github.axolotlclient.waypoints.map.WorldMapScreen;
+import io.github.axolotlclient.waypoints.map.util.TileRegionStorage;
 import lombok.extern.slf4j.Slf4j;
 import net.fabricmc.loader.api.FabricLoader;
 import net.ornithemc.osl.networking.api.client.ClientConnectionEvents;
@@ -44,6 +46,8 @@ public void init() {
 		ClientConnectionEvents.DISCONNECT.register((client) -> {
 			reset();
 			receivedPayload = false;
+			TileRegionStorage.closeAll();
+			AxolotlClientWaypointsCommon.MAP_WORK.clear();
 		});
 	}
 
@@ -19,8 +19,16 @@
 	compileOnly("io.github.axolotlclient.AxolotlClient:AxolotlClient-common:${project.property("axolotlclient")}")
 	testImplementation(compileOnly("com.google.code.gson:gson:2.10")!!)
 
-	compileOnly("org.joml:joml:1.10.8")
-	compileOnly("org.slf4j:slf4j-api:1.7.36")
+	testRuntimeOnly(compileOnly("org.joml:joml:1.10.8")!!)
+	testRuntimeOnly(compileOnly("org.slf4j:slf4j-api:1.7.36")!!)
+
+	testImplementation(platform("org.junit:junit-bom:5.11.4"))
+	testImplementation("org.junit.jupiter:junit-jupiter")
+	testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+	useJUnitPlatform()
 }
 
 tasks.jar {
@@ -27,6 +27,8 @@
 import io.github.axolotlclient.AxolotlClientConfig.api.options.OptionCategory;
 import io.github.axolotlclient.AxolotlClientConfig.api.ui.ConfigUI;
 import io.github.axolotlclient.bridge.util.AxoIdentifier;
+import io.github.axolotlclient.waypoints.map.util.MapColumnCache;
+import io.github.axolotlclient.waypoints.map.util.MapWorkScheduler;
 import net.fabricmc.loader.api.FabricLoader;
 
 public class AxolotlClientWaypointsCommon {
@@ -36,6 +38,8 @@ public class AxolotlClientWaypointsCommon {
 	static final Path MOD_STORAGE_DIR = FabricLoader.getInstance().getGameDir().resolve("." + MODID);
 	public static final Path OPTIONS_PATH = FabricLoader.getInstance().getConfigDir().resolve(MODID).resolve("options.json");
 	public static final boolean AXOLOTLCLIENT_PRESENT = FabricLoader.getInstance().isModLoaded("axolotlclient");
+	public static final MapColumnCache COLUMN_CACHE = new MapColumnCache();
+	public static final MapWorkScheduler MAP_WORK = new MapWorkScheduler();
 
 	public static Path getCurrentWorldStorageDir() {
 		throw new UnsupportedOperationException("Implemented using Mixin");
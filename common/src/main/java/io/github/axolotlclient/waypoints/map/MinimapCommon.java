@@ -26,18 +26,44 @@
 import io.github.axolotlclient.AxolotlClientConfig.api.util.Colors;
 import io.github.axolotlclient.AxolotlClientConfig.impl.options.ColorOption;
 import io.github.axolotlclient.AxolotlClientConfig.impl.options.IntegerOption;
+import io.github.axolotlclient.AxolotlClientConfig.impl.options.StringArrayOption;
 import io.github.axolotlclient.bridge.render.AxoRenderContext;
 import io.github.axolotlclient.waypoints.BooleanOption;
+import io.github.axolotlclient.waypoints.map.util.DirtyColumns;
 import lombok.Getter;
 import lombok.Setter;
 
 public abstract class MinimapCommon {
 	public final int radius = 64,
 		size = radius * 2;
-	public final int viewDistance = 128;
+	public static final int MAX_ZOOM_OUT = 3;
+	private static final String[] SIZES = {"128", "256", "512"};
+	/**
+	 * The side length of the map texture in map pixels, always a power of two.
+	 */
+	@Getter
+	protected int viewDistance = 128;
+	/**
+	 * How many map pixels fit across the minimap.
+	 */
+	protected int resolution = 128;
 	@Getter
 	@Setter
 	protected int x,y;
+	/**
+	 * How many ticks the displayed map lags behind the player position.
+	 */
+	@Getter
+	protected int staleTicks;
+	protected DirtyColumns dirtyColumns = new DirtyColumns(viewDistance);
+	// nanoseconds spent drawing since the last update, averaged per view distance below
+	protected long drawDuration;
+	private final float[] averageCost = new float[SIZES.length];
+	/**
+	 * The zoom out level the map is currently drawn at. Each level halves the scale,
+	 * so one pixel of the map covers {@code 1 << zoom} blocks in each direction.
+	 */
+	protected int zoom;
 
 	public final ColorOption outlineColor = new ColorOption("outline_color", Colors.WHITE);
 	public final BooleanOption minimapOutline = new BooleanOption("minimap_outline", true);
@@ -47,15 +73,74 @@ public abstract class MinimapCommon {
 	protected final BooleanOption lockMapToNorth = new BooleanOption("lock_map_north", true);
 	public final BooleanOption enabled = new BooleanOption("enabled", true);
 	protected final IntegerOption mapScale = new IntegerOption("map_scale", 1, 1, 5);
+	protected final IntegerOption zoomOut = new IntegerOption("zoom_out", 0, 0, MAX_ZOOM_OUT);
+	protected final StringArrayOption mapResolution = new StringArrayOption("map_resolution", SIZES, SIZES[0]);
+	protected final StringArrayOption mapViewDistance = new StringArrayOption("map_view_distance", SIZES, SIZES[0]);
 	protected final BooleanOption showWaypoints = new BooleanOption("show_waypoints", true);
 	protected final BooleanOption showCardinalDirections = new BooleanOption("show_cardinal_directions", true);
+	protected final BooleanOption asyncRasterization = new BooleanOption("async_rasterization", false);
+	public final IntegerOption updateBudget = new IntegerOption("update_budget", 500, 100, 10000);
+	public final IntegerOption worldMapMemory = new IntegerOption("world_map_memory", 256, 32, 4096);
 	public static final OptionCategory minimap = OptionCategory.create("minimap");
 
 	public abstract void renderMap(AxoRenderContext ctx);
 
 	public abstract boolean isEnabled();
 
+	/**
+	 * Marks a column whose top block changed. The column south of it is marked as well,
+	 * as its shading depends on this column's height.
+	 */
+	public void markDirty(int x, int z) {
+		dirtyColumns.mark(x >> zoom, z >> zoom);
+		dirtyColumns.mark(x >> zoom, (z + 1) >> zoom);
+	}
+
+	/**
+	 * Marks a chunk whose biomes changed along with its neighbours, as their blended colors reach into it.
+	 */
+	public void markBiomesDirty(int chunkX, int chunkZ) {
+		int shift = 4 - zoom;
+		dirtyColumns.markArea((chunkX - 1) << shift, (chunkZ - 1) << shift, 3 << shift, (3 << shift) + 1);
+	}
+
+	/**
+	 * @return the configured view distance, raised to the resolution so the rotated view is always covered
+	 */
+	protected int getConfiguredViewDistance() {
+		return Math.max(Integer.parseInt(mapResolution.get()), Integer.parseInt(mapViewDistance.get()));
+	}
+
+	/**
+	 * Folds the time one update took, including the drawing done since the previous one,
+	 * into the running average of the current view distance.
+	 */
+	protected void recordCost(long updateDuration) {
+		float millis = (updateDuration + drawDuration) / 1000_000f;
+		drawDuration = 0;
+		int index = Integer.numberOfTrailingZeros(viewDistance) - 7;
+		if (index >= 0 && index < averageCost.length) {
+			averageCost[index] = averageCost[index] == 0 ? millis : averageCost[index] * 0.95f + millis * 0.05f;
+		}
+	}
+
+	/**
+	 * Describes the average update cost of every view distance used so far, for the debug overlay.
+	 */
+	public String describeCost() {
+		var builder = new StringBuilder();
+		for (int i = 0; i < averageCost.length; i++) {
+			if (averageCost[i] > 0) {
+				if (!builder.isEmpty()) {
+					builder.append(", ");
+				}
+				builder.append("%spx: %.2f ms".formatted(SIZES[i], averageCost[i]));
+			}
+		}
+		return builder.isEmpty() ? "-" : builder.toString();
+	}
+
 	protected void init() {
-		minimap.add(enabled, lockMapToNorth, arrowScale, minimapOutline, outlineColor, enableBiomeBlending, mapScale, showWaypoints, showCardinalDirections);
+		minimap.add(enabled, lockMapToNorth, arrowScale, minimapOutline, outlineColor, enableBiomeBlending, mapScale, zoomOut, mapResolution, mapViewDistance, showWaypoints, showCardinalDirections, asyncRasterization, updateBudget, worldMapMemory);
 	}
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Blended water, grass and foliage colors of every column of a chunk, sampled at the surface.
+ * Blending reads the biomes of neighbouring chunks, so instances are marked stale once
+ * one of them is (re)loaded.
+ */
+public class ChunkBiomeColors {
+	@Getter
+	@Accessors(fluent = true)
+	private final int chunkX, chunkZ;
+	private final int[] water = new int[MapColumnCache.ChunkColumns.SIZE * MapColumnCache.ChunkColumns.SIZE];
+	private final int[] grass = new int[MapColumnCache.ChunkColumns.SIZE * MapColumnCache.ChunkColumns.SIZE];
+	private final int[] foliage = new int[MapColumnCache.ChunkColumns.SIZE * MapColumnCache.ChunkColumns.SIZE];
+	volatile long lastAccess;
+	@Getter
+	private volatile boolean stale;
+
+	public ChunkBiomeColors(int chunkX, int chunkZ) {
+		this.chunkX = chunkX;
+		this.chunkZ = chunkZ;
+	}
+
+	public void set(int index, int water, int grass, int foliage) {
+		this.water[index] = water;
+		this.grass[index] = grass;
+		this.foliage[index] = foliage;
+	}
+
+	public int water(int index) {
+		return water[index];
+	}
+
+	public int grass(int index) {
+		return grass[index];
+	}
+
+	public int foliage(int index) {
+		return foliage[index];
+	}
+
+	void markStale() {
+		stale = true;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.util.Arrays;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Every run of map-visible blocks in the columns of a chunk, independent of the cave level.
+ * Runs are stored top to bottom, each packed into a long holding the top and bottom Y of the run
+ * and the color id, fluid depth and fluid floor color id of its top block.
+ */
+public class ColumnFloors {
+	private static final int COLUMNS = MapColumnCache.ChunkColumns.SIZE * MapColumnCache.ChunkColumns.SIZE;
+
+	@Getter
+	@Accessors(fluent = true)
+	private final int chunkX, chunkZ;
+	private final int[] offsets;
+	private final long[] runs;
+	volatile long lastAccess;
+
+	private ColumnFloors(int chunkX, int chunkZ, int[] offsets, long[] runs) {
+		this.chunkX = chunkX;
+		this.chunkZ = chunkZ;
+		this.offsets = offsets;
+		this.runs = runs;
+	}
+
+	/**
+	 * @return the highest run of the column reaching down to {@code y} or below, or {@code -1} if there is none
+	 */
+	public int find(int index, int y) {
+		for (int run = offsets[index]; run < offsets[index + 1]; run++) {
+			if (bottom(run) <= y) {
+				return run;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the first run of the column, runs of a column are consecutive
+	 */
+	public int firstRun(int index) {
+		return offsets[index];
+	}
+
+	/**
+	 * @return the run after the last one of the column
+	 */
+	public int endRun(int index) {
+		return offsets[index + 1];
+	}
+
+	public int top(int run) {
+		return (short) runs[run];
+	}
+
+	public int bottom(int run) {
+		return (short) (runs[run] >> 16);
+	}
+
+	public int colorId(int run) {
+		return (int) (runs[run] >> 32) & 0xFF;
+	}
+
+	public int fluidDepth(int run) {
+		return (int) (runs[run] >> 40) & 0xFF;
+	}
+
+	public int floorColorId(int run) {
+		return (int) (runs[run] >> 48) & 0xFF;
+	}
+
+	public int size() {
+		return runs.length;
+	}
+
+	/**
+	 * Collects runs column by column, in {@link MapColumnCache.ChunkColumns#index(int, int)} order.
+	 * Can be reused after {@link #build(int, int)}.
+	 */
+	public static class Builder {
+		private final int[] offsets = new int[COLUMNS + 1];
+		private long[] runs = new long[1024];
+		private int column, size;
+
+		public void add(int top, int bottom, int colorId, int fluidDepth, int floorColorId) {
+			if (size == runs.length) {
+				runs = Arrays.copyOf(runs, size * 2);
+			}
+			runs[size++] = (top & 0xFFFFL) | (bottom & 0xFFFFL) << 16 | (colorId & 0xFFL) << 32
+				| (Math.min(fluidDepth, 0xFF) & 0xFFL) << 40 | (floorColorId & 0xFFL) << 48;
+		}
+
+		public void endColumn() {
+			offsets[++column] = size;
+		}
+
+		public ColumnFloors build(int chunkX, int chunkZ) {
+			var floors = new ColumnFloors(chunkX, chunkZ, offsets.clone(), Arrays.copyOf(runs, size));
+			column = 0;
+			size = 0;
+			return floors;
+		}
+	}
+}
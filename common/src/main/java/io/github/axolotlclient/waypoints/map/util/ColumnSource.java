@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+/**
+ * Primitive per-column inputs of the map rasterizer for one 16x16 chunk,
+ * indexed by {@link MapColumnCache.ChunkColumns#index(int, int)}.
+ */
+public interface ColumnSource {
+
+	/**
+	 * @return the y level of the top block, or {@link MapColumnCache#NO_HEIGHT}
+	 */
+	int height(int index);
+
+	int colorId(int index);
+
+	/**
+	 * @return one of {@link MapColumnCache#BRIGHTNESS_LOW}, {@link MapColumnCache#BRIGHTNESS_NORMAL} or {@link MapColumnCache#BRIGHTNESS_HIGH}
+	 */
+	int brightness(int index);
+
+	/**
+	 * @return how many blocks of water lie above the floor
+	 */
+	int fluidDepth(int index);
+
+	/**
+	 * @return the color id of the block below the water
+	 */
+	int floorColorId(int index);
+}
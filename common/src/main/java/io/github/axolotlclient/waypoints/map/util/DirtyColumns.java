@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.util.Arrays;
+
+/**
+ * One bit per column of the minimap's ring buffer, set for columns that changed since they were last drawn.
+ * Columns are addressed by world coordinates wrapped to the ring, so marks outside the view only cause
+ * a harmless repaint of the column they alias.
+ */
+public class DirtyColumns {
+	private final int size, mask;
+	private final long[] bits;
+	private boolean empty = true;
+
+	public DirtyColumns(int size) {
+		this.size = size;
+		this.mask = size - 1;
+		this.bits = new long[Math.max(1, size * size >> 6)];
+	}
+
+	public void mark(int x, int z) {
+		int index = (x & mask) + (z & mask) * size;
+		bits[index >> 6] |= 1L << index;
+		empty = false;
+	}
+
+	public void markArea(int x, int z, int width, int height) {
+		for (int row = z; row < z + height; row++) {
+			for (int column = x; column < x + width; column++) {
+				mark(column, row);
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	public void clear() {
+		Arrays.fill(bits, 0);
+		empty = true;
+	}
+
+	/**
+	 * Passes the ring coordinates of every dirty column to the consumer and clears all marks.
+	 */
+	public void drain(ColumnConsumer consumer) {
+		for (int word = 0; word < bits.length; word++) {
+			long value = bits[word];
+			bits[word] = 0;
+			while (value != 0) {
+				int index = word << 6 | Long.numberOfTrailingZeros(value);
+				consumer.accept(index & mask, index / size);
+				value &= value - 1;
+			}
+		}
+		empty = true;
+	}
+
+	public interface ColumnConsumer {
+		void accept(int x, int z);
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Predicts which chunks are about to scroll into the minimap from the player's movement.
+ * Chunks that were prefetched are remembered in a small LRU, so they are only prepared once
+ * while the player keeps moving over them.
+ * Only meant to be used from the client thread.
+ */
+public class EdgePrefetcher {
+	// how far ahead the view is predicted
+	private static final int LOOKAHEAD_TICKS = 20;
+	private static final int MAX_CHUNKS_PER_TICK = 64;
+	private static final int CAPACITY = 512;
+	// anything faster than this is a teleport rather than movement
+	private static final double MAX_SPEED = 64;
+
+	private final Map<Long, Boolean> prefetched = new LinkedHashMap<>(CAPACITY, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+			return size() > CAPACITY;
+		}
+	};
+	private double lastX = Double.NaN, lastZ = Double.NaN;
+	private int remaining;
+
+	@FunctionalInterface
+	public interface ChunkConsumer {
+		void accept(int chunkX, int chunkZ);
+	}
+
+	/**
+	 * Forgets all prefetched chunks, for when the view is drawn from different columns.
+	 */
+	public void clear() {
+		prefetched.clear();
+	}
+
+	public void markPrefetched(int chunkX, int chunkZ) {
+		prefetched.put(MapColumnCache.pack(chunkX, chunkZ), Boolean.TRUE);
+	}
+
+	/**
+	 * Estimates the player's velocity from the position given on the previous call and hands out
+	 * the chunks between the edge of the view and where it will be in {@value LOOKAHEAD_TICKS} ticks
+	 * that were not prefetched yet.
+	 *
+	 * @param x       the player's x position in blocks
+	 * @param z       the player's z position in blocks
+	 * @param centerX the x coordinate of the view center in map pixels
+	 * @param centerZ the z coordinate of the view center in map pixels
+	 */
+	public void predict(double x, double z, int centerX, int centerZ, int viewDistance, int zoom, ChunkConsumer consumer) {
+		double velocityX = x - lastX;
+		double velocityZ = z - lastZ;
+		lastX = x;
+		lastZ = z;
+		if (Double.isNaN(velocityX) || Math.abs(velocityX) > MAX_SPEED || Math.abs(velocityZ) > MAX_SPEED) {
+			return;
+		}
+		int aheadX = (int) Math.round(velocityX * LOOKAHEAD_TICKS / (1 << zoom));
+		int aheadZ = (int) Math.round(velocityZ * LOOKAHEAD_TICKS / (1 << zoom));
+		int minX = centerX - viewDistance / 2;
+		int minZ = centerZ - viewDistance / 2;
+		int maxX = minX + viewDistance;
+		int maxZ = minZ + viewDistance;
+		int shift = 4 - zoom;
+		remaining = MAX_CHUNKS_PER_TICK;
+		if (aheadX != 0) {
+			int fromX = aheadX > 0 ? maxX : minX + aheadX;
+			int toX = aheadX > 0 ? maxX + aheadX : minX;
+			strip(fromX >> shift, (toX - 1) >> shift, Math.min(minZ, minZ + aheadZ) >> shift, (Math.max(maxZ, maxZ + aheadZ) - 1) >> shift, aheadX > 0, true, consumer);
+		}
+		if (aheadZ != 0) {
+			int fromZ = aheadZ > 0 ? maxZ : minZ + aheadZ;
+			int toZ = aheadZ > 0 ? maxZ + aheadZ : minZ;
+			strip(fromZ >> shift, (toZ - 1) >> shift, minX >> shift, (maxX - 1) >> shift, aheadZ > 0, false, consumer);
+		}
+	}
+
+	/**
+	 * Walks a strip of chunks row by row starting at the edge of the view, so the nearest ones are handed out first.
+	 */
+	private void strip(int from, int to, int acrossFrom, int acrossTo, boolean forward, boolean alongX, ChunkConsumer consumer) {
+		for (int i = 0; i <= to - from; i++) {
+			int along = forward ? from + i : to - i;
+			for (int across = acrossFrom; across <= acrossTo; across++) {
+				if (remaining <= 0) {
+					return;
+				}
+				int chunkX = alongX ? along : across;
+				int chunkZ = alongX ? across : along;
+				if (!prefetched.containsKey(MapColumnCache.pack(chunkX, chunkZ))) {
+					remaining--;
+					consumer.accept(chunkX, chunkZ);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Per-chunk results of the top block search shared by the minimap and the world map.
+ * Columns are kept for up to {@link #MAX_LEVELS_PER_CHUNK} cave levels of a chunk, so the minimap and the world map
+ * looking at different levels do not replace each other's columns. They have to be invalidated
+ * whenever the chunk they were sampled from changes.
+ */
+public class MapColumnCache {
+	public static final int NO_HEIGHT = Integer.MIN_VALUE;
+	public static final int SURFACE = Integer.MAX_VALUE;
+	public static final byte BRIGHTNESS_LOW = 0, BRIGHTNESS_NORMAL = 1, BRIGHTNESS_HIGH = 2;
+	// the surface, the minimap's cave level and the one picked on the world map
+	public static final int MAX_LEVELS_PER_CHUNK = 3;
+	private static final int MAX_CHUNKS = 8192;
+	// floors are a lot larger than a single layer of columns
+	private static final int MAX_FLOOR_CHUNKS = 1024;
+
+	private final Map<Long, ChunkLevels> chunks = new ConcurrentHashMap<>();
+	private final Map<Long, ColumnFloors> floors = new ConcurrentHashMap<>();
+	private final Map<Long, ChunkBiomeColors> biomeColors = new ConcurrentHashMap<>();
+	private final AtomicLong accessCounter = new AtomicLong();
+	private volatile Object level;
+
+	public static long pack(int chunkX, int chunkZ) {
+		return (long) chunkX & 0xFFFFFFFFL | ((long) chunkZ & 0xFFFFFFFFL) << 32;
+	}
+
+	/**
+	 * Drops all entries if the given level is not the one the cache was filled from.
+	 */
+	public void setLevel(Object level) {
+		if (this.level != level) {
+			clear();
+			this.level = level;
+		}
+	}
+
+	public ChunkColumns get(int chunkX, int chunkZ, int caveY) {
+		var columns = peek(chunkX, chunkZ, caveY);
+		if (columns != null) {
+			columns.lastAccess = accessCounter.incrementAndGet();
+		}
+		return columns;
+	}
+
+	private ChunkColumns peek(int chunkX, int chunkZ, int caveY) {
+		var levels = chunks.get(pack(chunkX, chunkZ));
+		return levels == null ? null : levels.get(caveY);
+	}
+
+	/**
+	 * Keeps the columns of a chunk, replacing the ones of the same cave level or,
+	 * if the chunk already has {@link #MAX_LEVELS_PER_CHUNK} levels, the least recently used one.
+	 */
+	public ChunkColumns put(ChunkColumns columns) {
+		columns.lastAccess = accessCounter.incrementAndGet();
+		columns.updateBrightness(peek(columns.chunkX, columns.chunkZ - 1, columns.caveY));
+		chunks.computeIfAbsent(pack(columns.chunkX, columns.chunkZ), k -> new ChunkLevels()).put(columns);
+		var south = peek(columns.chunkX, columns.chunkZ + 1, columns.caveY);
+		if (south != null) {
+			south.updateNorthEdge(columns);
+		}
+		if (chunks.size() > MAX_CHUNKS) {
+			evict(chunks, ChunkLevels::lastAccess, MAX_CHUNKS);
+		}
+		return columns;
+	}
+
+	public ColumnFloors getFloors(int chunkX, int chunkZ) {
+		var columnFloors = floors.get(pack(chunkX, chunkZ));
+		if (columnFloors != null) {
+			columnFloors.lastAccess = accessCounter.incrementAndGet();
+		}
+		return columnFloors;
+	}
+
+	public ColumnFloors putFloors(ColumnFloors columnFloors) {
+		columnFloors.lastAccess = accessCounter.incrementAndGet();
+		floors.put(pack(columnFloors.chunkX(), columnFloors.chunkZ()), columnFloors);
+		if (floors.size() > MAX_FLOOR_CHUNKS) {
+			evict(floors, f -> f.lastAccess, MAX_FLOOR_CHUNKS);
+		}
+		return columnFloors;
+	}
+
+	public ChunkBiomeColors getBiomeColors(int chunkX, int chunkZ) {
+		var colors = biomeColors.get(pack(chunkX, chunkZ));
+		if (colors != null) {
+			colors.lastAccess = accessCounter.incrementAndGet();
+		}
+		return colors;
+	}
+
+	public ChunkBiomeColors putBiomeColors(ChunkBiomeColors colors) {
+		colors.lastAccess = accessCounter.incrementAndGet();
+		biomeColors.put(pack(colors.chunkX(), colors.chunkZ()), colors);
+		if (biomeColors.size() > MAX_CHUNKS) {
+			evict(biomeColors, c -> c.lastAccess, MAX_CHUNKS);
+		}
+		return colors;
+	}
+
+	/**
+	 * Drops the biome colors of a chunk whose biomes changed, together with those of its neighbours
+	 * as blending reaches across chunk borders. Colors already derived from them are dropped as well,
+	 * and the columns get a new revision so they are drawn again.
+	 */
+	public void invalidateBiomes(int chunkX, int chunkZ) {
+		for (int z = chunkZ - 1; z <= chunkZ + 1; z++) {
+			for (int x = chunkX - 1; x <= chunkX + 1; x++) {
+				long key = pack(x, z);
+				var colors = biomeColors.remove(key);
+				if (colors != null) {
+					colors.markStale();
+				}
+				var levels = chunks.get(key);
+				if (levels != null) {
+					levels.forEach(columns -> {
+						columns.colors = null;
+						// the minimap skips chunks it already drew at the current revision
+						columns.revision++;
+					});
+				}
+			}
+		}
+	}
+
+	public void invalidate(int chunkX, int chunkZ) {
+		long key = pack(chunkX, chunkZ);
+		chunks.remove(key);
+		floors.remove(key);
+	}
+
+	public void invalidateBlock(int x, int z) {
+		invalidate(x >> 4, z >> 4);
+	}
+
+	public void clear() {
+		chunks.clear();
+		floors.clear();
+		biomeColors.values().forEach(ChunkBiomeColors::markStale);
+		biomeColors.clear();
+	}
+
+	private static <T> void evict(Map<Long, T> entries, ToLongFunction<T> lastAccess, int max) {
+		long[] accesses = entries.values().stream().mapToLong(lastAccess).toArray();
+		if (accesses.length <= max) {
+			return;
+		}
+		Arrays.sort(accesses);
+		long threshold = accesses[accesses.length - max * 3 / 4];
+		entries.values().removeIf(e -> lastAccess.applyAsLong(e) < threshold);
+	}
+
+	private static byte brightness(int x, int z, int y, int northY) {
+		if (northY == NO_HEIGHT) {
+			northY = y;
+		}
+		double f = (y - northY) * 4.0 / (1 + 4) + ((x + z & 1) - 0.5) * 0.4;
+		if (f > 0.6) {
+			return BRIGHTNESS_HIGH;
+		} else if (f < -0.6) {
+			return BRIGHTNESS_LOW;
+		}
+		return BRIGHTNESS_NORMAL;
+	}
+
+	/**
+	 * The columns of one chunk at the cave levels last asked for.
+	 */
+	private static final class ChunkLevels {
+		private final ChunkColumns[] levels = new ChunkColumns[MAX_LEVELS_PER_CHUNK];
+
+		private synchronized ChunkColumns get(int caveY) {
+			for (var columns : levels) {
+				if (columns != null && columns.caveY == caveY) {
+					return columns;
+				}
+			}
+			return null;
+		}
+
+		private synchronized void put(ChunkColumns columns) {
+			int slot = 0;
+			for (int i = 0; i < levels.length; i++) {
+				if (levels[i] == null || levels[i].caveY == columns.caveY) {
+					slot = i;
+					break;
+				}
+				if (levels[i].lastAccess < levels[slot].lastAccess) {
+					slot = i;
+				}
+			}
+			levels[slot] = columns;
+		}
+
+		private synchronized long lastAccess() {
+			long lastAccess = 0;
+			for (var columns : levels) {
+				if (columns != null) {
+					lastAccess = Math.max(lastAccess, columns.lastAccess);
+				}
+			}
+			return lastAccess;
+		}
+
+		private synchronized void forEach(Consumer<ChunkColumns> action) {
+			for (var columns : levels) {
+				if (columns != null) {
+					action.accept(columns);
+				}
+			}
+		}
+	}
+
+	public static class ChunkColumns implements ColumnSource {
+		public static final int SIZE = 16;
+
+		@Getter
+		@Accessors(fluent = true)
+		private final int chunkX, chunkZ, caveY;
+		private final int[] heights = new int[SIZE * SIZE];
+		private final byte[] colorIds = new byte[SIZE * SIZE];
+		private final byte[] brightness = new byte[SIZE * SIZE];
+		private final byte[] fluidDepths = new byte[SIZE * SIZE];
+		private final byte[] floorColorIds = new byte[SIZE * SIZE];
+		private volatile long lastAccess;
+		// bumped whenever brightness is recomputed in place, as the instance itself stays the same
+		private int revision;
+		private volatile Colors colors;
+
+		public ChunkColumns(int chunkX, int chunkZ, int caveY) {
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+			this.caveY = caveY;
+			Arrays.fill(heights, NO_HEIGHT);
+		}
+
+		/**
+		 * @return a copy of the columns and their brightness, without the colors built from them
+		 */
+		public ChunkColumns copy() {
+			var copy = new ChunkColumns(chunkX, chunkZ, caveY);
+			System.arraycopy(heights, 0, copy.heights, 0, heights.length);
+			System.arraycopy(colorIds, 0, copy.colorIds, 0, colorIds.length);
+			System.arraycopy(brightness, 0, copy.brightness, 0, brightness.length);
+			System.arraycopy(fluidDepths, 0, copy.fluidDepths, 0, fluidDepths.length);
+			System.arraycopy(floorColorIds, 0, copy.floorColorIds, 0, floorColorIds.length);
+			copy.revision = revision;
+			return copy;
+		}
+
+		public static int index(int x, int z) {
+			return (x & 15) + (z & 15) * SIZE;
+		}
+
+		public void set(int index, int height, int colorId, int fluidDepth, int floorColorId) {
+			heights[index] = height;
+			colorIds[index] = (byte) colorId;
+			fluidDepths[index] = (byte) Math.min(fluidDepth, Byte.MAX_VALUE);
+			floorColorIds[index] = (byte) floorColorId;
+		}
+
+		@Override
+		public int height(int index) {
+			return heights[index];
+		}
+
+		@Override
+		public int colorId(int index) {
+			return colorIds[index] & 0xFF;
+		}
+
+		@Override
+		public int brightness(int index) {
+			return brightness[index];
+		}
+
+		@Override
+		public int fluidDepth(int index) {
+			return fluidDepths[index];
+		}
+
+		@Override
+		public int floorColorId(int index) {
+			return floorColorIds[index] & 0xFF;
+		}
+
+		public int revision() {
+			return revision;
+		}
+
+		/**
+		 * @return the {@link MapMipmaps} pyramid last stored for the current revision, or {@code null}
+		 */
+		public int[] colors(boolean biomeBlending) {
+			var colors = this.colors;
+			return colors != null && colors.revision == revision && colors.biomeBlending == biomeBlending ? colors.pyramid : null;
+		}
+
+		public void setColors(int[] pyramid, boolean biomeBlending) {
+			colors = new Colors(pyramid, revision, biomeBlending);
+		}
+
+		/**
+		 * Shades every column against the one north of it.
+		 *
+		 * @param north the columns of the chunk to the north, or {@code null} if they are not known
+		 */
+		public void updateBrightness(ChunkColumns north) {
+			updateNorthEdge(north);
+			for (int index = SIZE; index < SIZE * SIZE; index++) {
+				brightness[index] = MapColumnCache.brightness(index & 15, index >> 4, heights[index], heights[index - SIZE]);
+			}
+		}
+
+		private void updateNorthEdge(ChunkColumns north) {
+			boolean northValid = north != null && north.caveY == caveY;
+			revision++;
+			for (int x = 0; x < SIZE; x++) {
+				brightness[x] = MapColumnCache.brightness(x, 0, heights[x], northValid ? north.heights[x + (SIZE - 1) * SIZE] : NO_HEIGHT);
+			}
+		}
+
+		private record Colors(int[] pyramid, int revision, boolean biomeBlending) {
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.util.Arrays;
+
+import lombok.Getter;
+
+/**
+ * Heap copy of a map texture's pixels in the texture's native format.
+ * Keeps track of the pixels changed since the last upload as one bounding box per cell of a
+ * {@value #CELLS}x{@value #CELLS} grid, so that changes far apart from each other, like the strips
+ * scrolled in at opposite edges of the minimap ring, are uploaded as separate small rectangles.
+ */
+public class MapFramebuffer {
+	public static final int CELLS = 4;
+
+	@Getter
+	private final int width, height;
+	@Getter
+	private final int[] pixels;
+	private final int cellWidth, cellHeight;
+	private final int[] dirtyMinX = new int[CELLS * CELLS], dirtyMinY = new int[CELLS * CELLS],
+		dirtyMaxX = new int[CELLS * CELLS], dirtyMaxY = new int[CELLS * CELLS];
+	private boolean dirty;
+
+	public MapFramebuffer(int width, int height) {
+		this(width, height, new int[width * height]);
+	}
+
+	public MapFramebuffer(int width, int height, int[] pixels) {
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+		cellWidth = (width + CELLS - 1) / CELLS;
+		cellHeight = (height + CELLS - 1) / CELLS;
+		clearDirty();
+	}
+
+	public void set(int x, int y, int color) {
+		int index = x + y * width;
+		if (pixels[index] != color) {
+			pixels[index] = color;
+			markDirty(x, y, x, y);
+		}
+	}
+
+	public void fill(int color) {
+		Arrays.fill(pixels, color);
+		markDirty(0, 0, width - 1, height - 1);
+	}
+
+	/**
+	 * Copies a full frame of the same size into this buffer, marking only the rows and columns that differ.
+	 */
+	public void copyFrom(int[] source) {
+		for (int y = 0; y < height; y++) {
+			int row = y * width;
+			int first = Arrays.mismatch(pixels, row, row + width, source, row, row + width);
+			if (first < 0) {
+				continue;
+			}
+			int last = width - 1;
+			while (pixels[row + last] == source[row + last]) {
+				last--;
+			}
+			System.arraycopy(source, row + first, pixels, row + first, last - first + 1);
+			markDirty(first, y, last, y);
+		}
+	}
+
+	/**
+	 * Marks the inclusive rectangle as changed in every cell it overlaps.
+	 */
+	private void markDirty(int minX, int minY, int maxX, int maxY) {
+		for (int cellY = minY / cellHeight; cellY <= maxY / cellHeight; cellY++) {
+			for (int cellX = minX / cellWidth; cellX <= maxX / cellWidth; cellX++) {
+				int cell = cellX + cellY * CELLS;
+				dirtyMinX[cell] = Math.min(dirtyMinX[cell], Math.max(minX, cellX * cellWidth));
+				dirtyMinY[cell] = Math.min(dirtyMinY[cell], Math.max(minY, cellY * cellHeight));
+				dirtyMaxX[cell] = Math.max(dirtyMaxX[cell], Math.min(maxX, (cellX + 1) * cellWidth - 1));
+				dirtyMaxY[cell] = Math.max(dirtyMaxY[cell], Math.min(maxY, (cellY + 1) * cellHeight - 1));
+			}
+		}
+		dirty = true;
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Visits the changed rectangles. Rectangles of vertically adjacent cells that line up,
+	 * like the parts of a column strip, are joined into one.
+	 */
+	public void forEachDirty(RectConsumer consumer) {
+		if (!dirty) {
+			return;
+		}
+		for (int cellX = 0; cellX < CELLS; cellX++) {
+			int minX = 0, minY = 0, maxX = -1, maxY = -1;
+			for (int cellY = 0; cellY < CELLS; cellY++) {
+				int cell = cellX + cellY * CELLS;
+				if (dirtyMaxX[cell] < dirtyMinX[cell]) {
+					continue;
+				}
+				if (maxX >= minX && dirtyMinX[cell] == minX && dirtyMaxX[cell] == maxX && dirtyMinY[cell] == maxY + 1) {
+					maxY = dirtyMaxY[cell];
+					continue;
+				}
+				if (maxX >= minX) {
+					consumer.accept(minX, minY, maxX - minX + 1, maxY - minY + 1);
+				}
+				minX = dirtyMinX[cell];
+				minY = dirtyMinY[cell];
+				maxX = dirtyMaxX[cell];
+				maxY = dirtyMaxY[cell];
+			}
+			if (maxX >= minX) {
+				consumer.accept(minX, minY, maxX - minX + 1, maxY - minY + 1);
+			}
+		}
+	}
+
+	public void clearDirty() {
+		Arrays.fill(dirtyMinX, Integer.MAX_VALUE);
+		Arrays.fill(dirtyMinY, Integer.MAX_VALUE);
+		Arrays.fill(dirtyMaxX, -1);
+		Arrays.fill(dirtyMaxY, -1);
+		dirty = false;
+	}
+
+	@FunctionalInterface
+	public interface RectConsumer {
+		void accept(int x, int y, int width, int height);
+	}
+}
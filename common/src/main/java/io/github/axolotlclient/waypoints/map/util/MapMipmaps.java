@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+/**
+ * Mip pyramid of the colors of one chunk, stored in a single array.
+ * Level 0 holds one color per column, every further level halves the resolution by averaging 2x2 blocks.
+ * Colors are averaged per byte, so the pyramid works for any 8 bit per channel pixel format.
+ */
+public final class MapMipmaps {
+	public static final int LEVELS = 4;
+	public static final int LENGTH = offset(LEVELS);
+
+	private MapMipmaps() {
+	}
+
+	public static int size(int level) {
+		return MapColumnCache.ChunkColumns.SIZE >> level;
+	}
+
+	public static int offset(int level) {
+		int offset = 0;
+		for (int i = 0; i < level; i++) {
+			offset += size(i) * size(i);
+		}
+		return offset;
+	}
+
+	/**
+	 * Fills all levels above 0 from the colors already present in level 0.
+	 */
+	public static void build(int[] pyramid) {
+		for (int level = 1; level < LEVELS; level++) {
+			int size = size(level);
+			int src = offset(level - 1);
+			int dst = offset(level);
+			for (int z = 0; z < size; z++) {
+				for (int x = 0; x < size; x++) {
+					int i = src + x * 2 + z * 2 * size * 2;
+					pyramid[dst + x + z * size] = average(pyramid[i], pyramid[i + 1], pyramid[i + size * 2], pyramid[i + size * 2 + 1]);
+				}
+			}
+		}
+	}
+
+	static int average(int a, int b, int c, int d) {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int sum = (a >>> shift & 0xFF) + (b >>> shift & 0xFF) + (c >>> shift & 0xFF) + (d >>> shift & 0xFF);
+			result |= (sum + 2 >> 2) << shift;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Projects positions onto the minimap for the waypoint and cardinal direction overlay.
+ * The map transform is set up once per frame by {@link #begin}, positions are then projected
+ * with plain arithmetic instead of a matrix stack round trip each.
+ * Only meant to be used from the render thread.
+ */
+public class MapOverlay {
+	public static final int CARDINAL_DIRECTIONS = 4;
+	private static final String[] CARDINAL_LABELS = {"N", "E", "S", "W"};
+	private static final int[] CARDINAL_X = {0, 1, 0, -1}, CARDINAL_Y = {-1, 0, 1, 0};
+	private static final float SQRT_2 = (float) Math.sqrt(2);
+	private static final int MAX_LABEL_WIDTHS = 1024;
+
+	private final ToIntFunction<String> width;
+	private final Map<String, Integer> labelWidths = new HashMap<>();
+	// edge pixels already taken by a clamped position, indexed by y * (size + 1) + x
+	private long[] edgePixels = new long[0];
+	private int minX, minY, size;
+	private float centerX, centerY, scale, cos, sin;
+	private float projectedX, projectedY;
+
+	public MapOverlay(ToIntFunction<String> width) {
+		this.width = width;
+	}
+
+	/**
+	 * @param mapScale how many gui pixels a map pixel covers before the diagonal scale
+	 * @param rotation the map rotation in radians
+	 */
+	public void begin(int x, int y, int size, float mapScale, int zoom, float rotation) {
+		this.minX = x;
+		this.minY = y;
+		this.size = size;
+		this.centerX = x + size / 2f;
+		this.centerY = y + size / 2f;
+		this.scale = SQRT_2 * mapScale / (1 << zoom);
+		this.cos = (float) Math.cos(rotation);
+		this.sin = (float) Math.sin(rotation);
+		int words = ((size + 1) * (size + 1) + 63) >> 6;
+		if (edgePixels.length != words) {
+			edgePixels = new long[words];
+		} else {
+			Arrays.fill(edgePixels, 0);
+		}
+	}
+
+	/**
+	 * Projects a position given in blocks relative to the player, clamping it to the map bounds.
+	 *
+	 * @return {@code false} if the position was clamped onto an edge pixel an earlier position already occupies
+	 */
+	public boolean project(double offsetX, double offsetZ) {
+		float dx = (float) offsetX * scale;
+		float dy = (float) offsetZ * scale;
+		if (!clamp(centerX + cos * dx - sin * dy, centerY + sin * dx + cos * dy)) {
+			return true;
+		}
+		int pixel = ((int) projectedY - minY) * (size + 1) + (int) projectedX - minX;
+		long bit = 1L << pixel;
+		if ((edgePixels[pixel >> 6] & bit) != 0) {
+			return false;
+		}
+		edgePixels[pixel >> 6] |= bit;
+		return true;
+	}
+
+	/**
+	 * Projects the label position of a cardinal direction, in the order north, east, south, west.
+	 */
+	public void projectCardinal(int direction) {
+		float dx = CARDINAL_X[direction] * size;
+		float dy = CARDINAL_Y[direction] * size;
+		clamp(centerX + cos * dx - sin * dy, centerY + sin * dx + cos * dy);
+	}
+
+	public static String cardinalLabel(int direction) {
+		return CARDINAL_LABELS[direction];
+	}
+
+	public float x() {
+		return projectedX;
+	}
+
+	public float y() {
+		return projectedY;
+	}
+
+	public int labelWidth(String label) {
+		Integer cached = labelWidths.get(label);
+		if (cached != null) {
+			return cached;
+		}
+		if (labelWidths.size() >= MAX_LABEL_WIDTHS) {
+			labelWidths.clear();
+		}
+		int labelWidth = width.applyAsInt(label);
+		labelWidths.put(label, labelWidth);
+		return labelWidth;
+	}
+
+	private boolean clamp(float x, float y) {
+		projectedX = Math.max(minX, Math.min(x, minX + size));
+		projectedY = Math.max(minY, Math.min(y, minY + size));
+		return projectedX != x || projectedY != y;
+	}
+}
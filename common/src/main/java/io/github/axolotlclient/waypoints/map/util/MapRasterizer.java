@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import io.github.axolotlclient.waypoints.util.ARGB;
+
+/**
+ * Version independent part of drawing the map: shades columns into colors and copies them into frame buffers.
+ * Everything Minecraft specific is reached through {@link ColumnSource} and {@link Palette},
+ * so it runs without the game on the classpath.
+ */
+public class MapRasterizer {
+	public static final int EMPTY = ARGB.opaque(0);
+
+	private final Palette palette;
+	private final boolean abgr;
+
+	/**
+	 * @param abgr whether the target textures store pixels as ABGR instead of ARGB
+	 */
+	public MapRasterizer(Palette palette, boolean abgr) {
+		this.palette = palette;
+		this.abgr = abgr;
+	}
+
+	/**
+	 * @param waterColor the water tint of the column, only used if the column is water
+	 * @param waterShade how much the water tint is darkened by the level's lighting
+	 * @return the opaque ARGB color of the column
+	 */
+	public int shade(ColumnSource columns, int index, int waterColor, float waterShade) {
+		int colorId = columns.colorId(index);
+		if (colorId != palette.waterColorId()) {
+			return ARGB.opaque(palette.color(colorId, columns.brightness(index)));
+		}
+		int color = ARGB.colorFromFloat(1f, ARGB.redFloat(waterColor) * waterShade, ARGB.greenFloat(waterColor) * waterShade, ARGB.blueFloat(waterColor) * waterShade);
+		color = ARGB.average(color, ARGB.scaleRGB(palette.baseColor(columns.floorColorId(index)), 1f - columns.fluidDepth(index) / 15f));
+		return ARGB.opaque(color);
+	}
+
+	/**
+	 * Returns the {@link MapMipmaps} pyramid of the chunk's colors in the target pixel format,
+	 * computing it if the columns changed since it was last built.
+	 *
+	 * @param biomes the blended biome colors of the chunk, or {@code null} to use the default water color
+	 */
+	public int[] chunkColors(MapColumnCache.ChunkColumns columns, ChunkBiomeColors biomes, float waterShade, boolean biomeBlending) {
+		int[] colors = columns.colors(biomeBlending);
+		if (colors == null) {
+			colors = shadeChunk(columns, biomes, waterShade);
+			columns.setColors(colors, biomeBlending);
+		}
+		return colors;
+	}
+
+	/**
+	 * Builds a new {@link MapMipmaps} pyramid of the chunk's colors in the target pixel format without storing it anywhere.
+	 *
+	 * @param biomes the blended biome colors of the chunk, or {@code null} to use the default water color
+	 */
+	public int[] shadeChunk(ColumnSource columns, ChunkBiomeColors biomes, float waterShade) {
+		int[] colors = new int[MapMipmaps.LENGTH];
+		int defaultWater = palette.tint(palette.baseColor(palette.waterColorId()));
+		for (int index = 0; index < MapColumnCache.ChunkColumns.SIZE * MapColumnCache.ChunkColumns.SIZE; index++) {
+			int color = shade(columns, index, biomes == null ? defaultWater : palette.tint(biomes.water(index)), waterShade);
+			colors[index] = abgr ? ARGB.toABGR(color) : color;
+		}
+		MapMipmaps.build(colors);
+		return colors;
+	}
+
+	/**
+	 * Copies the part {@code [fromX, toX) x [fromZ, toZ)} of a chunk drawn at the given zoom level into a frame buffer
+	 * that wraps around at its edges, so positions may lie outside of it. The frame buffer has to be square
+	 * with a power of two side length.
+	 *
+	 * @param colors the chunk's {@link MapMipmaps} pyramid, or {@code null} to clear the part instead
+	 */
+	public static void copyChunk(int[] colors, int zoom, int chunkX, int chunkZ, int fromX, int fromZ, int toX, int toZ, MapFramebuffer target) {
+		int mask = target.getWidth() - 1;
+		int shift = 4 - zoom;
+		int chunkSize = 1 << shift;
+		int mipOffset = MapMipmaps.offset(zoom);
+		for (int z = fromZ; z < toZ; z++) {
+			int row = mipOffset + (z - (chunkZ << shift)) * chunkSize - (chunkX << shift);
+			for (int x = fromX; x < toX; x++) {
+				target.set(x & mask, z & mask, colors == null ? EMPTY : colors[row + x]);
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #copyChunk(int[], int, int, int, int, int, int, int, MapFramebuffer)} for a plain pixel array
+	 * of {@code size * size} pixels.
+	 */
+	public static void copyChunk(int[] colors, int zoom, int chunkX, int chunkZ, int fromX, int fromZ, int toX, int toZ, int[] target, int size) {
+		int mask = size - 1;
+		int shift = 4 - zoom;
+		int chunkSize = 1 << shift;
+		int mipOffset = MapMipmaps.offset(zoom);
+		for (int z = fromZ; z < toZ; z++) {
+			int row = mipOffset + (z - (chunkZ << shift)) * chunkSize - (chunkX << shift);
+			int targetRow = (z & mask) * size;
+			for (int x = fromX; x < toX; x++) {
+				target[targetRow + (x & mask)] = colors == null ? EMPTY : colors[row + x];
+			}
+		}
+	}
+
+	/**
+	 * Clears {@code [fromX, toX) x [fromZ, toZ)} of a wrapping frame buffer.
+	 */
+	public static void clear(int fromX, int fromZ, int toX, int toZ, MapFramebuffer target) {
+		int mask = target.getWidth() - 1;
+		for (int z = fromZ; z < toZ; z++) {
+			for (int x = fromX; x < toX; x++) {
+				target.set(x & mask, z & mask, EMPTY);
+			}
+		}
+	}
+
+	/**
+	 * The map colors of a game version.
+	 */
+	public interface Palette {
+
+		/**
+		 * @return the ARGB color of a map color at one of the {@link MapColumnCache} brightness levels
+		 */
+		int color(int colorId, int brightness);
+
+		/**
+		 * @return the unshaded ARGB color of a map color
+		 */
+		int baseColor(int colorId);
+
+		int waterColorId();
+
+		/**
+		 * Converts a water tint, either the base color of water or a blended biome color, to ARGB.
+		 */
+		default int tint(int color) {
+			return color;
+		}
+	}
+}
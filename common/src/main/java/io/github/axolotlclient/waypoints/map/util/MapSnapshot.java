@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+/**
+ * The colors of every chunk of one minimap frame, captured from {@link MapColumnCache} on the client thread
+ * so the frame can be drawn on a background thread without touching the level or the cache.
+ * Only shading and copying happen there, the columns themselves are sampled on the client thread.
+ * Chunks whose colors were not built yet keep a copy of their columns, which is shaded while drawing.
+ */
+public class MapSnapshot {
+	private final MapRasterizer rasterizer;
+	private final float waterShade;
+	private final boolean biomeBlending;
+	private final int mapX, mapZ, size, zoom;
+	private final int minChunkX, minChunkZ, chunksX, chunksZ;
+	private final int[][] colors;
+	private final MapColumnCache.ChunkColumns[] sources, copies;
+	private final ChunkBiomeColors[] biomes;
+
+	/**
+	 * @param mapX the x coordinate of the frame's corner in map pixels
+	 * @param mapZ the z coordinate of the frame's corner in map pixels
+	 * @param size the side length of the frame in map pixels
+	 */
+	public MapSnapshot(MapRasterizer rasterizer, float waterShade, boolean biomeBlending, int mapX, int mapZ, int size, int zoom) {
+		this.rasterizer = rasterizer;
+		this.waterShade = waterShade;
+		this.biomeBlending = biomeBlending;
+		this.mapX = mapX;
+		this.mapZ = mapZ;
+		this.size = size;
+		this.zoom = zoom;
+		int shift = 4 - zoom;
+		minChunkX = mapX >> shift;
+		minChunkZ = mapZ >> shift;
+		chunksX = ((mapX + size - 1) >> shift) - minChunkX + 1;
+		chunksZ = ((mapZ + size - 1) >> shift) - minChunkZ + 1;
+		colors = new int[chunksX * chunksZ][];
+		sources = new MapColumnCache.ChunkColumns[colors.length];
+		copies = new MapColumnCache.ChunkColumns[colors.length];
+		biomes = new ChunkBiomeColors[colors.length];
+	}
+
+	/**
+	 * Captures the cached columns of every chunk of the frame. Has to be called on the client thread.
+	 *
+	 * @param missing receives the chunks that are not cached yet, or lack their biome colors, and are left empty
+	 */
+	public void capture(MapColumnCache cache, int caveY, EdgePrefetcher.ChunkConsumer missing) {
+		for (int z = 0; z < chunksZ; z++) {
+			for (int x = 0; x < chunksX; x++) {
+				int chunkX = minChunkX + x;
+				int chunkZ = minChunkZ + z;
+				var columns = cache.get(chunkX, chunkZ, caveY);
+				var chunkBiomes = biomeBlending ? cache.getBiomeColors(chunkX, chunkZ) : null;
+				if (columns == null || biomeBlending && (chunkBiomes == null || chunkBiomes.isStale())) {
+					missing.accept(chunkX, chunkZ);
+					continue;
+				}
+				int index = x + z * chunksX;
+				colors[index] = columns.colors(biomeBlending);
+				if (colors[index] == null) {
+					sources[index] = columns;
+					copies[index] = columns.copy();
+					biomes[index] = chunkBiomes;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Shades the chunks that still need it and copies the frame into {@code target}, which wraps around
+	 * like the minimap texture. Safe to call from any thread.
+	 */
+	public void draw(int[] target) {
+		int shift = 4 - zoom;
+		int maxX = mapX + size;
+		int maxZ = mapZ + size;
+		for (int z = 0; z < chunksZ; z++) {
+			int chunkZ = minChunkZ + z;
+			int fromZ = Math.max(mapZ, chunkZ << shift);
+			int toZ = Math.min(maxZ, (chunkZ + 1) << shift);
+			for (int x = 0; x < chunksX; x++) {
+				int chunkX = minChunkX + x;
+				int fromX = Math.max(mapX, chunkX << shift);
+				int toX = Math.min(maxX, (chunkX + 1) << shift);
+				int index = x + z * chunksX;
+				if (colors[index] == null && copies[index] != null) {
+					colors[index] = rasterizer.shadeChunk(copies[index], biomes[index], waterShade);
+				}
+				MapRasterizer.copyChunk(colors[index], zoom, chunkX, chunkZ, fromX, fromZ, toX, toZ, target, size);
+			}
+		}
+	}
+
+	/**
+	 * Hands the colors shaded while drawing back to the cached columns they were shaded from,
+	 * unless those changed in the meantime. Has to be called on the client thread once {@link #draw(int[])} finished.
+	 */
+	public void publish() {
+		for (int index = 0; index < colors.length; index++) {
+			var source = sources[index];
+			if (source != null && colors[index] != null && source.revision() == copies[index].revision()
+				&& (biomes[index] == null || !biomes[index].isStale())) {
+				source.setColors(colors[index], biomeBlending);
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs map jobs on the client thread within a fixed time budget per tick.
+ * Jobs closest to the current focus (the player, or the center of the world map) run first,
+ * whatever does not fit into a tick's budget is carried over to the next one.
+ * Idle jobs only run once no regular job is left.
+ * A job that throws is logged and dropped, it does not keep the other jobs from running.
+ * All jobs are dropped once the level changes, as they would work on chunks that are gone.
+ */
+@Slf4j
+public class MapWorkScheduler {
+	private final Queue<Job> submitted = new ConcurrentLinkedQueue<>();
+	private final PriorityQueue<Job> jobs = new PriorityQueue<>(Comparator.comparingLong(this::distance));
+	private final PriorityQueue<Job> idleJobs = new PriorityQueue<>(Comparator.comparingLong(this::distance));
+	private int focusX, focusZ;
+	private int sortedFocusX, sortedFocusZ;
+	private Object level;
+	/**
+	 * Counts how often the queued jobs were dropped, so whoever keeps track of their queued jobs knows
+	 * that these will never run.
+	 */
+	@Getter
+	private int generation;
+	@Getter
+	private int lastJobCount;
+	@Getter
+	private long lastDuration;
+
+	/**
+	 * Queues a job located at the given block position. May be called from any thread.
+	 */
+	public void submit(int x, int z, Runnable task) {
+		submitted.add(new Job(x, z, task));
+	}
+
+	/**
+	 * Queues a job that only runs in budget left over by regular jobs. Has to be called on the client thread.
+	 */
+	public void submitIdle(int x, int z, Runnable task) {
+		idleJobs.add(new Job(x, z, task));
+	}
+
+	/**
+	 * Drops all idle jobs that did not run yet. Has to be called on the client thread.
+	 */
+	public void clearIdle() {
+		idleJobs.clear();
+	}
+
+	/**
+	 * Drops all jobs that did not run yet, regular and idle ones. Has to be called on the client thread.
+	 */
+	public void clear() {
+		submitted.clear();
+		jobs.clear();
+		idleJobs.clear();
+		generation++;
+	}
+
+	/**
+	 * Drops all jobs if the given level is not the one they were queued for. Has to be called on the client thread.
+	 */
+	public void setLevel(Object level) {
+		if (this.level != level) {
+			clear();
+			this.level = level;
+		}
+	}
+
+	public void setFocus(int x, int z) {
+		focusX = x;
+		focusZ = z;
+	}
+
+	public int getPendingJobs() {
+		return jobs.size() + submitted.size();
+	}
+
+	public void tick(long budgetNanos) {
+		long start = System.nanoTime();
+		// the queue's order depends on the focus, so it has to be rebuilt once the focus moved by more than a chunk
+		if (Math.abs(focusX - sortedFocusX) >= 16 || Math.abs(focusZ - sortedFocusZ) >= 16) {
+			var pending = new ArrayList<>(jobs);
+			var idle = new ArrayList<>(idleJobs);
+			jobs.clear();
+			idleJobs.clear();
+			sortedFocusX = focusX;
+			sortedFocusZ = focusZ;
+			jobs.addAll(pending);
+			idleJobs.addAll(idle);
+		}
+		Job job;
+		while ((job = submitted.poll()) != null) {
+			jobs.add(job);
+		}
+
+		int count = 0;
+		while (!jobs.isEmpty() && System.nanoTime() - start < budgetNanos) {
+			jobs.poll().run();
+			count++;
+		}
+		while (jobs.isEmpty() && submitted.isEmpty() && !idleJobs.isEmpty() && System.nanoTime() - start < budgetNanos) {
+			idleJobs.poll().run();
+			count++;
+		}
+		lastJobCount = count;
+		lastDuration = count == 0 ? 0 : System.nanoTime() - start;
+	}
+
+	private long distance(Job job) {
+		long dx = job.x - sortedFocusX;
+		long dz = job.z - sortedFocusZ;
+		return dx * dx + dz * dz;
+	}
+
+	private record Job(int x, int z, Runnable task) {
+		private void run() {
+			try {
+				task.run();
+			} catch (Exception e) {
+				log.error("Map job at {}, {} failed!", x, z, e);
+			}
+		}
+	}
+}
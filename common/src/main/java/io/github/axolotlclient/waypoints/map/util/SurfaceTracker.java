@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+/**
+ * Caches whether a block column position counts as being at the surface, shared by the minimap and the world map.
+ * The check walks the blocks above the position, so it is only repeated once the position moves
+ * to another block or its column is invalidated.
+ *
+ * @param <L> the level type
+ */
+public abstract class SurfaceTracker<L> {
+	private L level;
+	private int x, y, z;
+	private boolean valid, atSurface;
+
+	public boolean isAtSurface(L level, int x, int y, int z) {
+		if (!valid || this.level != level || this.x != x || this.y != y || this.z != z) {
+			atSurface = computeAtSurface(level, x, y, z);
+			this.level = level;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			valid = true;
+		}
+		return atSurface;
+	}
+
+	public void invalidate(int x, int z) {
+		if (this.x == x && this.z == z) {
+			valid = false;
+		}
+	}
+
+	public void invalidateChunk(int chunkX, int chunkZ) {
+		if (x >> 4 == chunkX && z >> 4 == chunkZ) {
+			valid = false;
+		}
+	}
+
+	protected abstract boolean computeAtSurface(L level, int x, int y, int z);
+}
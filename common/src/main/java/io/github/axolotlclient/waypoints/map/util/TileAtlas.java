@@ -0,0 +1,223 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Packs square map tiles of a fixed size into large texture pages, so all tiles on a page can be drawn
+ * from a single texture in one batch. Slots are handed out lowest first and freed slots are reused
+ * before another page is opened.
+ * Tiles write into the {@link MapFramebuffer} of their page, which the version specific renderer
+ * uploads once per frame.
+ *
+ * @param <T> the texture type of the game version
+ */
+public class TileAtlas<T> {
+	public static final int PAGE_SIZE = 1024;
+
+	@Getter
+	private final int tileSize;
+	private final int tilesPerRow, slotsPerPage;
+	private final IntFunction<T> textureFactory;
+	// replaced as a whole, so workers writing tiles never see it change under them
+	private volatile List<Page<T>> pages = List.of();
+
+	/**
+	 * @param textureFactory creates the texture of the page with the given index
+	 */
+	public TileAtlas(int tileSize, IntFunction<T> textureFactory) {
+		this.tileSize = tileSize;
+		this.tilesPerRow = PAGE_SIZE / tileSize;
+		this.slotsPerPage = tilesPerRow * tilesPerRow;
+		this.textureFactory = textureFactory;
+	}
+
+	/**
+	 * Reserves a slot, opening a new page if all others are full.
+	 * Has to be called on the render thread, as it may create a texture.
+	 *
+	 * @return the slot, which encodes the page and the position within it
+	 */
+	public synchronized int allocate() {
+		for (var page : pages) {
+			int index = page.used.nextClearBit(0);
+			if (index < slotsPerPage) {
+				page.used.set(index);
+				return page.index * slotsPerPage + index;
+			}
+		}
+		var page = new Page<>(pages.size(), textureFactory.apply(pages.size()));
+		page.used.set(0);
+		var grown = new ArrayList<>(pages);
+		grown.add(page);
+		pages = List.copyOf(grown);
+		return page.index * slotsPerPage;
+	}
+
+	public synchronized void free(int slot) {
+		var page = page(slot);
+		if (page != null) {
+			page.used.clear(slot % slotsPerPage);
+		}
+	}
+
+	/**
+	 * @return the page of the slot, or {@code null} if the atlas was cleared since the slot was allocated
+	 */
+	public Page<T> page(int slot) {
+		var pages = this.pages;
+		int index = slot / slotsPerPage;
+		return index < pages.size() ? pages.get(index) : null;
+	}
+
+	/**
+	 * @return the x position of the slot within its page
+	 */
+	public int u(int slot) {
+		return slot % slotsPerPage % tilesPerRow * tileSize;
+	}
+
+	/**
+	 * @return the y position of the slot within its page
+	 */
+	public int v(int slot) {
+		return slot % slotsPerPage / tilesPerRow * tileSize;
+	}
+
+	/**
+	 * Copies a tile's colors, stored row by row starting at index 0, into its slot.
+	 */
+	public void write(int slot, int[] colors) {
+		var page = page(slot);
+		if (page == null) {
+			return;
+		}
+		var framebuffer = page.framebuffer;
+		int u = u(slot);
+		int v = v(slot);
+		synchronized (framebuffer) {
+			for (int y = 0; y < tileSize; y++) {
+				for (int x = 0; x < tileSize; x++) {
+					framebuffer.set(u + x, v + y, colors[x + y * tileSize]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the colors of a slot into {@code target}, row by row.
+	 *
+	 * @return whether the slot still exists
+	 */
+	public boolean read(int slot, int[] target) {
+		var page = page(slot);
+		if (page == null) {
+			return false;
+		}
+		var framebuffer = page.framebuffer;
+		int offset = u(slot) + v(slot) * PAGE_SIZE;
+		synchronized (framebuffer) {
+			for (int y = 0; y < tileSize; y++) {
+				System.arraycopy(framebuffer.getPixels(), offset + y * PAGE_SIZE, target, y * tileSize, tileSize);
+			}
+		}
+		return true;
+	}
+
+	public void fill(int slot, int color) {
+		var page = page(slot);
+		if (page == null) {
+			return;
+		}
+		var framebuffer = page.framebuffer;
+		int u = u(slot);
+		int v = v(slot);
+		synchronized (framebuffer) {
+			for (int y = 0; y < tileSize; y++) {
+				for (int x = 0; x < tileSize; x++) {
+					framebuffer.set(u + x, v + y, color);
+				}
+			}
+		}
+	}
+
+	public List<Page<T>> pages() {
+		return pages;
+	}
+
+	/**
+	 * Drops all pages, handing their textures to {@code release}.
+	 */
+	public synchronized void clear(Consumer<T> release) {
+		pages.forEach(page -> release.accept(page.texture));
+		pages = List.of();
+	}
+
+	/**
+	 * Something drawn from an atlas slot, covering a square area of the world.
+	 */
+	public interface Entry {
+		int slot();
+
+		/**
+		 * @return the block x coordinate of the north west corner
+		 */
+		int x();
+
+		/**
+		 * @return the block z coordinate of the north west corner
+		 */
+		int z();
+
+		/**
+		 * @return the side length of the covered area in blocks
+		 */
+		int size();
+	}
+
+	public static class Page<T> {
+		@Getter
+		@Accessors(fluent = true)
+		private final int index;
+		@Getter
+		@Accessors(fluent = true)
+		private final T texture;
+		@Getter
+		@Accessors(fluent = true)
+		private final MapFramebuffer framebuffer = new MapFramebuffer(PAGE_SIZE, PAGE_SIZE);
+		private final BitSet used = new BitSet();
+
+		private Page(int index, T texture) {
+			this.index = index;
+			this.texture = texture;
+		}
+	}
+}
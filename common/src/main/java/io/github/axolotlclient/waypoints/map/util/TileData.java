@@ -0,0 +1,304 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * What the world map keeps of a chunk once it is no longer loaded: the top block of every column at the surface
+ * and, if the chunk was viewed below the surface, every run of visible blocks for looking up any cave level.
+ * <p>
+ * The southernmost row of the chunk to the north is kept as well, so the northern edge is shaded like it is while loaded.
+ * <p>
+ * Stored as a {@link #MAGIC} and {@link #VERSION} header followed by plain columns,
+ * a small fraction of the size of the chunk sections it was sampled from.
+ */
+public class TileData {
+	public static final int MAGIC = 0x4158544C;
+	public static final int VERSION = 2;
+	private static final int SIZE = MapColumnCache.ChunkColumns.SIZE;
+	private static final int COLUMNS = SIZE * SIZE;
+	private static final int SOUTH_ROW = COLUMNS - SIZE;
+	private static final byte HAS_SURFACE = 1, HAS_FLOORS = 2, HAS_NORTH_SURFACE = 4, HAS_NORTH_FLOORS = 8;
+	private static final int HEADER_BYTES = 4 + 1 + 4 + 4 + 1;
+	private static final int COLUMN_BYTES = 2 + 1 + 1 + 1;
+	private static final int RUN_BYTES = 2 + 2 + 1 + 1 + 1;
+
+	@Getter
+	@Accessors(fluent = true)
+	private final int chunkX, chunkZ;
+	private volatile MapColumnCache.ChunkColumns surface;
+	private volatile ColumnFloors floors;
+	// the surface heights and the floors of the southernmost row of the chunk to the north
+	private volatile int[] northHeights;
+	private volatile ColumnFloors northFloors;
+	// the columns last derived from the floors, as the world map asks for the same cave level over and over
+	private volatile MapColumnCache.ChunkColumns derived;
+
+	public TileData(int chunkX, int chunkZ) {
+		this.chunkX = chunkX;
+		this.chunkZ = chunkZ;
+	}
+
+	/**
+	 * Keeps the columns sampled from the loaded chunk, or the floors they were derived from if they are below the surface.
+	 */
+	public void capture(MapColumnCache.ChunkColumns columns, ColumnFloors floors) {
+		if (columns != null && columns.caveY() == MapColumnCache.SURFACE) {
+			surface = columns;
+		}
+		if (floors != null) {
+			this.floors = floors;
+			derived = null;
+		}
+	}
+
+	/**
+	 * Keeps the southernmost row of the chunk to the north, which the northern edge of this chunk is shaded against.
+	 * Arguments that are {@code null} keep what was captured before.
+	 *
+	 * @param north the columns of the chunk to the north, only kept if they are at the surface
+	 * @param northFloors the floors of the chunk to the north
+	 */
+	public void captureNorthEdge(MapColumnCache.ChunkColumns north, ColumnFloors northFloors) {
+		if (north != null && north.caveY() == MapColumnCache.SURFACE) {
+			int[] heights = new int[SIZE];
+			for (int x = 0; x < SIZE; x++) {
+				heights[x] = north.height(SOUTH_ROW + x);
+			}
+			if (!Arrays.equals(heights, northHeights)) {
+				northHeights = heights;
+				var surface = this.surface;
+				if (surface != null) {
+					surface.updateBrightness(north(MapColumnCache.SURFACE));
+				}
+			}
+		}
+		if (northFloors != null) {
+			var builder = new ColumnFloors.Builder();
+			for (int index = 0; index < COLUMNS; index++) {
+				if (index >= SOUTH_ROW) {
+					for (int run = northFloors.firstRun(index); run < northFloors.endRun(index); run++) {
+						builder.add(northFloors.top(run), northFloors.bottom(run), northFloors.colorId(run), northFloors.fluidDepth(run), northFloors.floorColorId(run));
+					}
+				}
+				builder.endColumn();
+			}
+			this.northFloors = builder.build(northFloors.chunkX(), northFloors.chunkZ());
+			derived = null;
+		}
+	}
+
+	public boolean isEmpty() {
+		return surface == null && floors == null;
+	}
+
+	/**
+	 * Columns derived from the floors only approximate where the cave level cuts through a run of blocks,
+	 * so they must not end up in {@link MapColumnCache}.
+	 *
+	 * @return the columns at the given cave level, or {@code null} if nothing was kept that they could be derived from
+	 */
+	public MapColumnCache.ChunkColumns columns(int caveY) {
+		var surface = this.surface;
+		var floors = this.floors;
+		if (caveY == MapColumnCache.SURFACE && surface != null) {
+			return surface;
+		}
+		if (floors == null) {
+			return surface;
+		}
+		var derived = this.derived;
+		if (derived != null && derived.caveY() == caveY) {
+			return derived;
+		}
+		var columns = new MapColumnCache.ChunkColumns(chunkX, chunkZ, caveY);
+		derive(floors, caveY, columns, 0);
+		columns.updateBrightness(north(caveY));
+		this.derived = columns;
+		return columns;
+	}
+
+	/**
+	 * @return the southernmost row of the chunk to the north at the given cave level, or {@code null} if it is not known
+	 */
+	private MapColumnCache.ChunkColumns north(int caveY) {
+		var northHeights = this.northHeights;
+		var northFloors = this.northFloors;
+		var north = new MapColumnCache.ChunkColumns(chunkX, chunkZ - 1, caveY);
+		if (caveY == MapColumnCache.SURFACE && northHeights != null) {
+			for (int x = 0; x < SIZE; x++) {
+				north.set(SOUTH_ROW + x, northHeights[x], 0, 0, 0);
+			}
+		} else if (northFloors != null) {
+			derive(northFloors, caveY, north, SOUTH_ROW);
+		} else {
+			return null;
+		}
+		return north;
+	}
+
+	private static void derive(ColumnFloors floors, int caveY, MapColumnCache.ChunkColumns columns, int fromIndex) {
+		for (int index = fromIndex; index < COLUMNS; index++) {
+			int run = floors.find(index, caveY == MapColumnCache.SURFACE ? Integer.MAX_VALUE : caveY - 1);
+			if (run < 0) {
+				continue;
+			}
+			if (floors.top(run) < caveY) {
+				columns.set(index, floors.top(run), floors.colorId(run), floors.fluidDepth(run), floors.floorColorId(run));
+			} else {
+				// the cave level cuts through this run, the block right below it is not known so its top block stands in
+				columns.set(index, caveY - 1, floors.colorId(run), 0, floors.floorColorId(run));
+			}
+		}
+	}
+
+	/**
+	 * @return roughly how many bytes the data takes in memory
+	 */
+	public int estimatedSize() {
+		var floors = this.floors;
+		var northFloors = this.northFloors;
+		return (surface == null ? 0 : COLUMNS * 8) + (floors == null ? 0 : floors.size() * 8 + COLUMNS * 4)
+			+ (northHeights == null ? 0 : SIZE * 4) + (northFloors == null ? 0 : northFloors.size() * 8 + COLUMNS * 4);
+	}
+
+	public ByteBuffer encode() {
+		var surface = this.surface;
+		var floors = this.floors;
+		var northHeights = this.northHeights;
+		var northFloors = this.northFloors;
+		int size = HEADER_BYTES + (surface == null ? 0 : COLUMNS * COLUMN_BYTES) + (floors == null ? 0 : floorsBytes(floors, 0))
+			+ (northHeights == null ? 0 : SIZE * 2) + (northFloors == null ? 0 : floorsBytes(northFloors, SOUTH_ROW));
+		var buf = ByteBuffer.allocate(size);
+		buf.putInt(MAGIC).put((byte) VERSION).putInt(chunkX).putInt(chunkZ);
+		buf.put((byte) ((surface == null ? 0 : HAS_SURFACE) | (floors == null ? 0 : HAS_FLOORS)
+			| (northHeights == null ? 0 : HAS_NORTH_SURFACE) | (northFloors == null ? 0 : HAS_NORTH_FLOORS)));
+		if (surface != null) {
+			for (int index = 0; index < COLUMNS; index++) {
+				int height = surface.height(index);
+				buf.putShort(height == MapColumnCache.NO_HEIGHT ? Short.MIN_VALUE : (short) height);
+				buf.put((byte) surface.colorId(index)).put((byte) surface.fluidDepth(index)).put((byte) surface.floorColorId(index));
+			}
+		}
+		if (floors != null) {
+			encodeFloors(buf, floors, 0);
+		}
+		if (northHeights != null) {
+			for (int height : northHeights) {
+				buf.putShort(height == MapColumnCache.NO_HEIGHT ? Short.MIN_VALUE : (short) height);
+			}
+		}
+		if (northFloors != null) {
+			encodeFloors(buf, northFloors, SOUTH_ROW);
+		}
+		return buf.flip();
+	}
+
+	private static int floorsBytes(ColumnFloors floors, int fromIndex) {
+		return (COLUMNS - fromIndex) * 2 + (floors.endRun(COLUMNS - 1) - floors.firstRun(fromIndex)) * RUN_BYTES;
+	}
+
+	/**
+	 * Writes the runs of the columns from {@code fromIndex} on, the ones before have to be empty.
+	 */
+	private static void encodeFloors(ByteBuffer buf, ColumnFloors floors, int fromIndex) {
+		for (int index = fromIndex; index < COLUMNS; index++) {
+			buf.putShort((short) (floors.endRun(index) - floors.firstRun(index)));
+		}
+		for (int run = floors.firstRun(fromIndex); run < floors.endRun(COLUMNS - 1); run++) {
+			buf.putShort((short) floors.top(run)).putShort((short) floors.bottom(run));
+			buf.put((byte) floors.colorId(run)).put((byte) floors.fluidDepth(run)).put((byte) floors.floorColorId(run));
+		}
+	}
+
+	private static ColumnFloors decodeFloors(ByteBuffer buf, int chunkX, int chunkZ, int fromIndex) {
+		int[] counts = new int[COLUMNS];
+		for (int index = fromIndex; index < COLUMNS; index++) {
+			counts[index] = buf.getShort();
+		}
+		var builder = new ColumnFloors.Builder();
+		for (int index = 0; index < COLUMNS; index++) {
+			for (int run = 0; run < counts[index]; run++) {
+				builder.add(buf.getShort(), buf.getShort(), buf.get() & 0xFF, buf.get() & 0xFF, buf.get() & 0xFF);
+			}
+			builder.endColumn();
+		}
+		return builder.build(chunkX, chunkZ);
+	}
+
+	public static TileData decode(ByteBuffer buf) throws IOException {
+		if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC) {
+			throw new IOException("Not a world map tile");
+		}
+		int version = buf.get();
+		// version 1 only lacks the chunk to the north
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Unsupported world map tile version " + version);
+		}
+		try {
+			var data = new TileData(buf.getInt(), buf.getInt());
+			int flags = buf.get();
+			if ((flags & HAS_SURFACE) != 0) {
+				var surface = new MapColumnCache.ChunkColumns(data.chunkX, data.chunkZ, MapColumnCache.SURFACE);
+				for (int index = 0; index < COLUMNS; index++) {
+					short height = buf.getShort();
+					surface.set(index, height == Short.MIN_VALUE ? MapColumnCache.NO_HEIGHT : height, buf.get() & 0xFF, buf.get(), buf.get() & 0xFF);
+				}
+				data.surface = surface;
+			}
+			if ((flags & HAS_FLOORS) != 0) {
+				data.floors = decodeFloors(buf, data.chunkX, data.chunkZ, 0);
+			}
+			if ((flags & HAS_NORTH_SURFACE) != 0) {
+				int[] heights = new int[SIZE];
+				for (int x = 0; x < SIZE; x++) {
+					short height = buf.getShort();
+					heights[x] = height == Short.MIN_VALUE ? MapColumnCache.NO_HEIGHT : height;
+				}
+				data.northHeights = heights;
+			}
+			if ((flags & HAS_NORTH_FLOORS) != 0) {
+				data.northFloors = decodeFloors(buf, data.chunkX, data.chunkZ - 1, SOUTH_ROW);
+			}
+			if (data.surface != null) {
+				data.surface.updateBrightness(data.north(MapColumnCache.SURFACE));
+			}
+			return data;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated world map tile", e);
+		}
+	}
+
+	public static TileData read(Path file) throws IOException {
+		return decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Concurrent map from tile positions to tiles, without boxing or allocating keys.
+ * Tiles are bucketed into regions of {@link #REGION_SIZE}x{@link #REGION_SIZE} tiles, which can be iterated
+ * for a range of positions without looking at any tile outside of it.
+ * Reads never block. Only the first write into a region takes a lock, so the region table can be replaced.
+ */
+public class TileIndex<V> {
+	public static final int REGION_SHIFT = 5;
+	public static final int REGION_SIZE = 1 << REGION_SHIFT;
+	private static final int REGION_MASK = REGION_SIZE - 1;
+
+	private volatile Table<V> table = new Table<>(16);
+	private final AtomicInteger size = new AtomicInteger();
+
+	private static int index(int x, int y) {
+		return (x & REGION_MASK) + (y & REGION_MASK) * REGION_SIZE;
+	}
+
+	public V get(int x, int y) {
+		var region = table.get(MapColumnCache.pack(x >> REGION_SHIFT, y >> REGION_SHIFT));
+		return region == null ? null : region.tiles.get(index(x, y));
+	}
+
+	public boolean containsKey(int x, int y) {
+		return get(x, y) != null;
+	}
+
+	/**
+	 * @return the tile previously stored at the position, or {@code null}
+	 */
+	public V put(int x, int y, V value) {
+		V previous = region(x >> REGION_SHIFT, y >> REGION_SHIFT).tiles.getAndSet(index(x, y), value);
+		if (previous == null) {
+			size.incrementAndGet();
+		}
+		return previous;
+	}
+
+	/**
+	 * @return the tile already stored at the position, or {@code null} if {@code value} was stored
+	 */
+	public V putIfAbsent(int x, int y, V value) {
+		var tiles = region(x >> REGION_SHIFT, y >> REGION_SHIFT).tiles;
+		int index = index(x, y);
+		if (tiles.compareAndSet(index, null, value)) {
+			size.incrementAndGet();
+			return null;
+		}
+		return tiles.get(index);
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public synchronized void clear() {
+		table = new Table<>(16);
+		size.set(0);
+	}
+
+	public void forEach(Consumer<? super V> action) {
+		for (var region : table.regions) {
+			if (region != null) {
+				region.forEach(0, 0, REGION_MASK, REGION_MASK, action);
+			}
+		}
+	}
+
+	/**
+	 * Visits every tile with {@code minX <= x <= maxX} and {@code minY <= y <= maxY}.
+	 */
+	public void forEachInRange(int minX, int minY, int maxX, int maxY, Consumer<? super V> action) {
+		int minRegionX = minX >> REGION_SHIFT, maxRegionX = maxX >> REGION_SHIFT;
+		int minRegionY = minY >> REGION_SHIFT, maxRegionY = maxY >> REGION_SHIFT;
+		var table = this.table;
+		long regionsInRange = (long) (maxRegionX - minRegionX + 1) * (maxRegionY - minRegionY + 1);
+		if (regionsInRange > table.count) {
+			// the range is larger than everything present, so filter the present regions instead of looking up each one in range
+			for (var region : table.regions) {
+				if (region != null && region.x >= minRegionX && region.x <= maxRegionX && region.y >= minRegionY && region.y <= maxRegionY) {
+					region.forEachClamped(minX, minY, maxX, maxY, action);
+				}
+			}
+			return;
+		}
+		for (int regionY = minRegionY; regionY <= maxRegionY; regionY++) {
+			for (int regionX = minRegionX; regionX <= maxRegionX; regionX++) {
+				var region = table.get(MapColumnCache.pack(regionX, regionY));
+				if (region != null) {
+					region.forEachClamped(minX, minY, maxX, maxY, action);
+				}
+			}
+		}
+	}
+
+	private Region<V> region(int regionX, int regionY) {
+		long key = MapColumnCache.pack(regionX, regionY);
+		var region = table.get(key);
+		if (region != null) {
+			return region;
+		}
+		synchronized (this) {
+			var table = this.table;
+			region = table.get(key);
+			if (region == null) {
+				region = new Region<>(regionX, regionY);
+				this.table = table.with(key, region);
+			}
+			return region;
+		}
+	}
+
+	private static final class Region<V> {
+		private final int x, y;
+		private final AtomicReferenceArray<V> tiles = new AtomicReferenceArray<>(REGION_SIZE * REGION_SIZE);
+
+		private Region(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		private void forEachClamped(int minX, int minY, int maxX, int maxY, Consumer<? super V> action) {
+			int originX = x << REGION_SHIFT;
+			int originY = y << REGION_SHIFT;
+			forEach(Math.max(minX - originX, 0), Math.max(minY - originY, 0), Math.min(maxX - originX, REGION_MASK), Math.min(maxY - originY, REGION_MASK), action);
+		}
+
+		private void forEach(int fromX, int fromY, int toX, int toY, Consumer<? super V> action) {
+			for (int y = fromY; y <= toY; y++) {
+				for (int x = fromX; x <= toX; x++) {
+					V tile = tiles.get(x + y * REGION_SIZE);
+					if (tile != null) {
+						action.accept(tile);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Immutable open addressing table of regions, replaced as a whole whenever a region is added.
+	 */
+	private static final class Table<V> {
+		private final long[] keys;
+		private final Region<V>[] regions;
+		private final int count;
+
+		private Table(int capacity) {
+			keys = new long[capacity];
+			@SuppressWarnings("unchecked")
+			Region<V>[] regions = (Region<V>[]) new Region<?>[capacity];
+			this.regions = regions;
+			count = 0;
+		}
+
+		private Table(long[] keys, Region<V>[] regions, int count) {
+			this.keys = keys;
+			this.regions = regions;
+			this.count = count;
+		}
+
+		private static int slot(long key, int mask) {
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ hash >>> 32) & mask;
+		}
+
+		private Region<V> get(long key) {
+			int mask = keys.length - 1;
+			for (int i = slot(key, mask); regions[i] != null; i = i + 1 & mask) {
+				if (keys[i] == key) {
+					return regions[i];
+				}
+			}
+			return null;
+		}
+
+		private Table<V> with(long key, Region<V> region) {
+			int capacity = keys.length;
+			// keep the table at most half full so probe sequences stay short
+			while ((count + 1) * 2 > capacity) {
+				capacity *= 2;
+			}
+			var grown = new Table<V>(capacity);
+			for (int i = 0; i < keys.length; i++) {
+				if (regions[i] != null) {
+					grown.insert(keys[i], regions[i]);
+				}
+			}
+			grown.insert(key, region);
+			return new Table<>(grown.keys, grown.regions, count + 1);
+		}
+
+		private void insert(long key, Region<V> region) {
+			int mask = keys.length - 1;
+			int i = slot(key, mask);
+			while (regions[i] != null) {
+				i = i + 1 & mask;
+			}
+			keys[i] = key;
+			regions[i] = region;
+		}
+	}
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Level of detail hierarchy over the chunk tiles of a {@link TileAtlas}.
+ * A tile of level {@code n} covers {@code 2^n x 2^n} chunk tiles downsampled to the size of a single tile,
+ * so the number of tiles drawn for a zoomed out view is bounded by the screen size instead of the explored area.
+ * <p>
+ * Tiles only take an atlas slot while they are on screen, and count against the {@link TileMemoryBudget} like chunk tiles do.
+ * Tiles evicted by it are saved if they changed. They are built from their four children,
+ * with the colors of chunk tiles looked up one at a time, so the chunk tiles do not have to be loaded for it.
+ * Chunk tiles may be read in the background, a tile waiting for them is built on a later {@link #update(long)}.
+ * Built tiles are kept in a {@link TileRegionStorage} per level, so the next time they are read instead of built again.
+ * Apart from {@link #register(int, int)} and {@link #markDirty(int, int)}, everything has to happen on the render thread.
+ */
+@Slf4j
+public class TileLod {
+	public static final int MAX_LEVEL = 5;
+	public static final int MAGIC = 0x41584C44;
+	public static final int VERSION = 1;
+
+	private final TileAtlas<?> atlas;
+	private final TileMemoryBudget budget;
+	private final ColorLookup chunkTiles;
+	private final Level[] levels = new Level[MAX_LEVEL + 1];
+	private final Queue<LodTile> requested = new ArrayDeque<>();
+	private final List<Long> waiting = new ArrayList<>();
+	private final int[] childColors, colors;
+	private final long tileBytes;
+	private Path dir;
+
+	/**
+	 * @param chunkTiles reads the colors of the chunk tile at a tile position, possibly in the background
+	 */
+	public TileLod(TileAtlas<?> atlas, TileMemoryBudget budget, ColorLookup chunkTiles) {
+		this.atlas = atlas;
+		this.budget = budget;
+		this.chunkTiles = chunkTiles;
+		for (int level = 1; level <= MAX_LEVEL; level++) {
+			levels[level] = new Level();
+		}
+		int tileSize = atlas.getTileSize();
+		childColors = new int[tileSize * tileSize];
+		colors = new int[tileSize * tileSize];
+		// the pixels on the atlas page and in its texture
+		tileBytes = tileSize * tileSize * 8L;
+	}
+
+	/**
+	 * @param pixelsPerBlock how many screen pixels one block covers
+	 * @return the finest level whose texels cover at least one screen pixel,
+	 * that is the first one with {@code (1 << level) * pixelsPerBlock >= 1}, or {@link #MAX_LEVEL} if none does
+	 */
+	public static int level(float pixelsPerBlock) {
+		int level = 0;
+		while (level < MAX_LEVEL && (1 << level) * pixelsPerBlock < 1) {
+			level++;
+		}
+		return level;
+	}
+
+	private static TileRegionStorage storage(Path dir, int level) {
+		return TileRegionStorage.of(dir.resolve("lod" + level));
+	}
+
+	/**
+	 * Forgets the saved tiles covering a chunk tile, which have to be built again since it changed.
+	 * They are removed in the background, reading them waits for that.
+	 *
+	 * @param dir the directory the chunk tiles are saved in
+	 */
+	public static void invalidate(Path dir, int tileX, int tileY) {
+		invalidate(dir, 1, tileX >> 1, tileY >> 1);
+	}
+
+	private static void invalidate(Path dir, int level, int tileX, int tileY) {
+		for (; level <= MAX_LEVEL; level++) {
+			storage(dir, level).removeAsync(tileX, tileY);
+			tileX >>= 1;
+			tileY >>= 1;
+		}
+	}
+
+	/**
+	 * Adds the tiles covering a chunk tile, so they are built once they are drawn. May be called from any thread.
+	 */
+	public void register(int tileX, int tileY) {
+		for (int level = 1; level <= MAX_LEVEL; level++) {
+			int x = tileX >> level, y = tileY >> level;
+			if (levels[level].tiles.get(x, y) == null) {
+				levels[level].tiles.putIfAbsent(x, y, new LodTile(level, x, y, atlas.getTileSize()));
+			}
+		}
+	}
+
+	/**
+	 * Marks the chunk tile at the given tile position as changed. May be called from any thread.
+	 */
+	public void markDirty(int tileX, int tileY) {
+		levels[1].dirty.add(MapColumnCache.pack(tileX >> 1, tileY >> 1));
+	}
+
+	/**
+	 * Loads or builds the tiles requested by {@link #forEachInRange}, then rebuilds outdated tiles, finer levels first
+	 * so parents are built from up to date children, for as long as {@code budgetNanos} allow.
+	 */
+	public void update(long budgetNanos) {
+		long start = System.nanoTime();
+		while (!requested.isEmpty() && System.nanoTime() - start < budgetNanos) {
+			load(requested.poll());
+		}
+		levels:
+		for (int level = 1; level <= MAX_LEVEL; level++) {
+			var iterator = levels[level].dirty.iterator();
+			while (iterator.hasNext()) {
+				if (System.nanoTime() - start >= budgetNanos) {
+					break levels;
+				}
+				long key = iterator.next();
+				iterator.remove();
+				if (!rebuild(level, (int) key, (int) (key >>> 32))) {
+					// added back once the iteration is done, as it would otherwise be visited again right away
+					waiting.add(key);
+				}
+			}
+		}
+		levels[1].dirty.addAll(waiting);
+		waiting.clear();
+	}
+
+	/**
+	 * Visits the tiles of a level that cover any of the chunk tiles in the given inclusive range and are in memory,
+	 * marking them as drawn in {@code frame}. The others are requested for the next {@link #update(long)}.
+	 */
+	public void forEachInRange(int level, int minTileX, int minTileY, int maxTileX, int maxTileY, long frame, Consumer<? super LodTile> action) {
+		levels[level].tiles.forEachInRange(minTileX >> level, minTileY >> level, maxTileX >> level, maxTileY >> level, tile -> {
+			// a requested tile is drawn as soon as it is loaded, so it must not be evicted right away either
+			tile.lastDrawn = frame;
+			if (tile.slot >= 0) {
+				action.accept(tile);
+			} else if (!tile.requested) {
+				tile.requested = true;
+				requested.add(tile);
+			}
+		});
+	}
+
+	/**
+	 * Drops all tiles from memory, saving the ones that changed, and keeps tiles in the {@code lod<level>} directories
+	 * inside {@code dir} from now on.
+	 *
+	 * @param dir the directory the chunk tiles are saved in, or {@code null} if the tiles should only be kept in memory,
+	 * as for cave levels
+	 */
+	public void reset(Path dir) {
+		release();
+		this.dir = dir;
+	}
+
+	/**
+	 * Saves the tiles that changed, frees the slots of all tiles and closes their storages.
+	 */
+	public void clear() {
+		release();
+		for (int level = 1; level <= MAX_LEVEL; level++) {
+			levels[level].tiles.clear();
+			if (dir != null) {
+				try {
+					storage(dir, level).close();
+				} catch (IOException e) {
+					log.warn("Failed to close level of detail tiles in {}", dir, e);
+				}
+			}
+		}
+		dir = null;
+	}
+
+	private void release() {
+		for (int level = 1; level <= MAX_LEVEL; level++) {
+			levels[level].tiles.forEach(tile -> {
+				if (tile.slot >= 0) {
+					budget.remove(tile);
+					evict(tile);
+				}
+				tile.requested = tile.building = false;
+				tile.chunkTileReads = null;
+			});
+			if (dir != null) {
+				// what was saved of tiles that were still to be rebuilt is outdated, as are the tiles built from it
+				for (long key : levels[level].dirty) {
+					invalidate(dir, level, (int) key, (int) (key >>> 32));
+				}
+			}
+			levels[level].dirty.clear();
+		}
+		requested.clear();
+	}
+
+	private void load(LodTile tile) {
+		if (tile.slot >= 0 || !tile.requested) {
+			return;
+		}
+		if (readSaved(tile, colors)) {
+			allocate(tile);
+			atlas.write(tile.slot, colors);
+		} else {
+			build(tile);
+		}
+	}
+
+	/**
+	 * Queues the tile for a rebuild, after the children it is built from that are neither in memory nor saved.
+	 */
+	private void build(LodTile tile) {
+		if (tile.building) {
+			return;
+		}
+		tile.building = true;
+		if (tile.level > 1) {
+			for (int child = 0; child < 4; child++) {
+				var childTile = levels[tile.level - 1].tiles.get(tile.tileX * 2 + (child & 1), tile.tileY * 2 + (child >> 1));
+				if (childTile != null && childTile.slot < 0 && !isSaved(childTile)) {
+					build(childTile);
+				}
+			}
+		}
+		levels[tile.level].dirty.add(MapColumnCache.pack(tile.tileX, tile.tileY));
+	}
+
+	/**
+	 * @return {@code false} if the tile is of level 1 and the chunk tiles it is built from are still being read
+	 */
+	private boolean rebuild(int level, int tileX, int tileY) {
+		var tile = levels[level].tiles.get(tileX, tileY);
+		if (tile == null) {
+			tile = new LodTile(level, tileX, tileY, atlas.getTileSize());
+			levels[level].tiles.put(tileX, tileY, tile);
+		}
+		if (level == 1 && !readChunkTiles(tile)) {
+			return false;
+		}
+		tile.building = false;
+		if (!read(tile, colors)) {
+			Arrays.fill(colors, 0);
+		}
+		int size = atlas.getTileSize();
+		int half = size / 2;
+		for (int child = 0; child < 4; child++) {
+			int childX = tileX * 2 + (child & 1);
+			int childY = tileY * 2 + (child >> 1);
+			boolean read;
+			if (level == 1) {
+				int[] chunkColors = tile.chunkTileReads.get(child).join();
+				read = chunkColors != null;
+				if (read) {
+					System.arraycopy(chunkColors, 0, childColors, 0, childColors.length);
+				}
+			} else {
+				read = read(levels[level - 1].tiles.get(childX, childY), childColors);
+			}
+			if (!read) {
+				// children that cannot be read keep what was downsampled from them before
+				continue;
+			}
+			int offset = (child & 1) * half + (child >> 1) * half * size;
+			for (int y = 0; y < half; y++) {
+				for (int x = 0; x < half; x++) {
+					int i = x * 2 + y * 2 * size;
+					colors[offset + x + y * size] = MapMipmaps.average(childColors[i], childColors[i + 1], childColors[i + size], childColors[i + size + 1]);
+				}
+			}
+		}
+		if (tile.slot < 0 && (tile.requested || dir == null)) {
+			allocate(tile);
+		}
+		if (tile.slot >= 0) {
+			atlas.write(tile.slot, colors);
+			tile.modified = true;
+		} else {
+			// only built for its parent, which reads it back once the write finished
+			storage(dir, level).writeAsync(tileX, tileY, encode(colors));
+		}
+		if (level < MAX_LEVEL) {
+			levels[level + 1].dirty.add(MapColumnCache.pack(tileX >> 1, tileY >> 1));
+		}
+		tile.chunkTileReads = null;
+		return true;
+	}
+
+	/**
+	 * Starts reading the four chunk tiles a tile of level 1 is built from, unless they are already being read.
+	 *
+	 * @return whether all of them were read
+	 */
+	private boolean readChunkTiles(LodTile tile) {
+		if (tile.chunkTileReads == null) {
+			tile.chunkTileReads = new ArrayList<>(4);
+			for (int child = 0; child < 4; child++) {
+				int childX = tile.tileX * 2 + (child & 1);
+				int childY = tile.tileY * 2 + (child >> 1);
+				tile.chunkTileReads.add(chunkTiles.colors(childX, childY).exceptionally(e -> {
+					log.warn("Failed to read chunk tile at {}, {}", childX, childY, e);
+					return null;
+				}));
+			}
+		}
+		for (var read : tile.chunkTileReads) {
+			if (!read.isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void allocate(LodTile tile) {
+		tile.slot = atlas.allocate();
+		tile.requested = false;
+		budget.add(tile, tileBytes);
+	}
+
+	/**
+	 * Frees the slot of a tile, saving it first if it changed. Tiles that are only kept in memory are built again the next time.
+	 */
+	private void evict(LodTile tile) {
+		if (tile.modified && dir != null) {
+			save(tile);
+		}
+		atlas.free(tile.slot);
+		tile.slot = -1;
+		tile.modified = false;
+	}
+
+	private boolean read(LodTile tile, int[] target) {
+		if (tile == null) {
+			return false;
+		}
+		if (tile.slot >= 0) {
+			return atlas.read(tile.slot, target);
+		}
+		return readSaved(tile, target);
+	}
+
+	private boolean isSaved(LodTile tile) {
+		try {
+			return dir != null && storage(dir, tile.level).contains(tile.tileX, tile.tileY);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private boolean readSaved(LodTile tile, int[] target) {
+		if (dir == null) {
+			return false;
+		}
+		try {
+			var stored = storage(dir, tile.level).read(tile.tileX, tile.tileY);
+			if (stored == null || stored.remaining() != 8 + target.length * 4 || stored.getInt() != MAGIC || stored.getInt() != VERSION) {
+				return false;
+			}
+			stored.asIntBuffer().get(target);
+			return true;
+		} catch (IOException e) {
+			log.warn("Failed to read level of detail tile at {}, {}", tile.tileX, tile.tileY, e);
+			return false;
+		}
+	}
+
+	private void save(LodTile tile) {
+		if (atlas.read(tile.slot, colors)) {
+			storage(dir, tile.level).writeAsync(tile.tileX, tile.tileY, encode(colors));
+		}
+	}
+
+	private static ByteBuffer encode(int[] colors) {
+		var buf = ByteBuffer.allocate(8 + colors.length * 4).putInt(MAGIC).putInt(VERSION);
+		for (int color : colors) {
+			buf.putInt(color);
+		}
+		return buf.flip();
+	}
+
+	@FunctionalInterface
+	public interface ColorLookup {
+		/**
+		 * Reads the colors of a tile. The future may complete on any thread, its colors are only used on the render thread.
+		 *
+		 * @return the colors, or {@code null} if there is no such tile
+		 */
+		CompletableFuture<int[]> colors(int tileX, int tileY);
+	}
+
+	private static final class Level {
+		private final TileIndex<LodTile> tiles = new TileIndex<>();
+		/**
+		 * Tiles to rebuild from their children.
+		 */
+		private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+	}
+
+	public class LodTile implements TileAtlas.Entry, TileMemoryBudget.Entry {
+		@Getter
+		@Accessors(fluent = true)
+		private final int level, tileX, tileY;
+		private final int size;
+		private int slot = -1;
+		private long lastDrawn;
+		private boolean requested, building, modified;
+		// the chunk tiles being read to build a tile of level 1
+		private List<CompletableFuture<int[]>> chunkTileReads;
+
+		private LodTile(int level, int tileX, int tileY, int tileSize) {
+			this.level = level;
+			this.tileX = tileX;
+			this.tileY = tileY;
+			this.size = tileSize << level;
+		}
+
+		@Override
+		public int slot() {
+			return slot;
+		}
+
+		@Override
+		public int x() {
+			return tileX * size;
+		}
+
+		@Override
+		public int z() {
+			return tileY * size;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public long lastDrawn() {
+			return lastDrawn;
+		}
+
+		@Override
+		public void evict() {
+			TileLod.this.evict(this);
+		}
+	}
+}
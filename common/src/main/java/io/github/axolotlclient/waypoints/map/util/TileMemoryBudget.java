@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the memory held by loaded tiles within a budget by evicting the ones drawn least recently.
+ * Tiles drawn in the current frame are never evicted, so the budget may be exceeded by what is on screen.
+ * Has to be used from the render thread only.
+ */
+public class TileMemoryBudget {
+	private final Map<Entry, Long> loaded = new HashMap<>();
+	private long bytes;
+
+	public void add(Entry tile, long size) {
+		var previous = loaded.put(tile, size);
+		bytes += size - (previous == null ? 0 : previous);
+	}
+
+	public void remove(Entry tile) {
+		var size = loaded.remove(tile);
+		if (size != null) {
+			bytes -= size;
+		}
+	}
+
+	/**
+	 * Evicts tiles not drawn in {@code frame}, least recently drawn first, until a quarter of the budget is free again,
+	 * so that panning does not evict a few tiles every single frame.
+	 */
+	public void enforce(long budget, long frame) {
+		if (bytes <= budget) {
+			return;
+		}
+		var candidates = new ArrayList<Entry>();
+		for (var tile : loaded.keySet()) {
+			if (tile.lastDrawn() < frame) {
+				candidates.add(tile);
+			}
+		}
+		candidates.sort(Comparator.comparingLong(Entry::lastDrawn));
+		long target = budget * 3 / 4;
+		for (int i = 0; i < candidates.size() && bytes > target; i++) {
+			var tile = candidates.get(i);
+			remove(tile);
+			tile.evict();
+		}
+	}
+
+	public void clear() {
+		loaded.clear();
+		bytes = 0;
+	}
+
+	public interface Entry {
+		/**
+		 * @return the frame the tile was last drawn in
+		 */
+		long lastDrawn();
+
+		/**
+		 * Drops the data of the tile, which has to be able to load it again later.
+		 */
+		void evict();
+	}
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Saved world map tiles of one level, packed into one file per region of {@link TileIndex#REGION_SIZE}x{@link TileIndex#REGION_SIZE} tiles.
+ * <p>
+ * A region file starts with {@link #MAGIC}, {@link #VERSION} and the offset and length of every tile, followed by the tile data.
+ * Tiles are overwritten in place when they still fit and appended otherwise, leaving the space they took before unused
+ * until {@link #compact()}. Files are read with positional {@link FileChannel} reads instead of being memory mapped,
+ * as a mapping cannot be released in time for a compaction to replace the file.
+ * <p>
+ * Once {@link #close() closed}, a storage forwards everything to the one {@link #of(Path)} returns from then on.
+ */
+@Slf4j
+public class TileRegionStorage {
+	public static final String FILE_EXTENSION = ".region";
+	public static final int MAGIC = 0x4158524D;
+	public static final int VERSION = 1;
+	private static final int TILES = TileIndex.REGION_SIZE * TileIndex.REGION_SIZE;
+	private static final int HEADER_BYTES = 4 + 4 + TILES * 8;
+	private static final Map<Path, TileRegionStorage> STORAGES = new ConcurrentHashMap<>();
+
+	private final Path dir;
+	private final Map<Long, Region> regions = new HashMap<>();
+	private final Map<Long, CompletableFuture<Void>> pendingWrites = new ConcurrentHashMap<>();
+	private boolean closed;
+
+	private TileRegionStorage(Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * @return the storage of the given directory, shared by everyone using it
+	 */
+	public static TileRegionStorage of(Path dir) {
+		return STORAGES.computeIfAbsent(dir, TileRegionStorage::new);
+	}
+
+	/**
+	 * Closes the storages of all directories, for when the player leaves the world.
+	 */
+	public static void closeAll() {
+		for (var storage : List.copyOf(STORAGES.values())) {
+			try {
+				storage.close();
+			} catch (IOException e) {
+				log.warn("Failed to close world map regions in {}", storage.dir, e);
+			}
+		}
+	}
+
+	private static int index(int tileX, int tileY) {
+		return (tileX & TileIndex.REGION_SIZE - 1) + (tileY & TileIndex.REGION_SIZE - 1) * TileIndex.REGION_SIZE;
+	}
+
+	private Path file(int regionX, int regionY) {
+		return dir.resolve("%d_%d%s".formatted(regionX, regionY, FILE_EXTENSION));
+	}
+
+	private Region region(int regionX, int regionY, boolean create) throws IOException {
+		long key = MapColumnCache.pack(regionX, regionY);
+		var region = regions.get(key);
+		if (region == null) {
+			var file = file(regionX, regionY);
+			if (!create && !Files.exists(file)) {
+				return null;
+			}
+			Files.createDirectories(dir);
+			region = new Region(file);
+			regions.put(key, region);
+		}
+		return region;
+	}
+
+	/**
+	 * Waits for a pending {@link #writeAsync(int, int, ByteBuffer)} or {@link #removeAsync(int, int)} of the tile first.
+	 */
+	public boolean contains(int tileX, int tileY) throws IOException {
+		awaitWrite(tileX, tileY);
+		synchronized (this) {
+			if (!closed) {
+				var region = region(tileX >> TileIndex.REGION_SHIFT, tileY >> TileIndex.REGION_SHIFT, false);
+				return region != null && region.lengths[index(tileX, tileY)] > 0;
+			}
+		}
+		return of(dir).contains(tileX, tileY);
+	}
+
+	/**
+	 * Waits for a pending {@link #writeAsync(int, int, ByteBuffer)} or {@link #removeAsync(int, int)} of the tile before reading it.
+	 *
+	 * @return the data of the tile, or {@code null} if none was saved
+	 */
+	public ByteBuffer read(int tileX, int tileY) throws IOException {
+		awaitWrite(tileX, tileY);
+		synchronized (this) {
+			if (!closed) {
+				var region = region(tileX >> TileIndex.REGION_SHIFT, tileY >> TileIndex.REGION_SHIFT, false);
+				return region == null ? null : region.read(index(tileX, tileY));
+			}
+		}
+		return of(dir).read(tileX, tileY);
+	}
+
+	public void write(int tileX, int tileY, ByteBuffer data) throws IOException {
+		synchronized (this) {
+			if (!closed) {
+				region(tileX >> TileIndex.REGION_SHIFT, tileY >> TileIndex.REGION_SHIFT, true).write(index(tileX, tileY), data);
+				return;
+			}
+		}
+		of(dir).write(tileX, tileY, data);
+	}
+
+	/**
+	 * Forgets the tile once a pending {@link #writeAsync(int, int, ByteBuffer)} of it finished.
+	 * The space it took is reclaimed by the next {@link #compact()}.
+	 */
+	public void remove(int tileX, int tileY) throws IOException {
+		awaitWrite(tileX, tileY);
+		removeNow(tileX, tileY);
+	}
+
+	private void removeNow(int tileX, int tileY) throws IOException {
+		synchronized (this) {
+			if (!closed) {
+				var region = region(tileX >> TileIndex.REGION_SHIFT, tileY >> TileIndex.REGION_SHIFT, false);
+				if (region != null) {
+					region.remove(index(tileX, tileY));
+				}
+				return;
+			}
+		}
+		of(dir).removeNow(tileX, tileY);
+	}
+
+	/**
+	 * Writes the tile on a background thread, after any write or removal of it that is still pending.
+	 * Failures are logged, as nobody waits for the result.
+	 */
+	public void writeAsync(int tileX, int tileY, ByteBuffer data) {
+		queue(tileX, tileY, () -> write(tileX, tileY, data));
+	}
+
+	/**
+	 * Forgets the tile on a background thread, after any write or removal of it that is still pending.
+	 * Failures are logged, as nobody waits for the result.
+	 */
+	public void removeAsync(int tileX, int tileY) {
+		// the removal runs as the pending write of the tile, so it must not wait for it
+		queue(tileX, tileY, () -> removeNow(tileX, tileY));
+	}
+
+	private void queue(int tileX, int tileY, Change change) {
+		long key = MapColumnCache.pack(tileX, tileY);
+		var write = pendingWrites.compute(key, (k, previous) -> (previous == null ? CompletableFuture.<Void>completedFuture(null) : previous).thenRunAsync(() -> {
+			try {
+				change.apply();
+			} catch (IOException e) {
+				log.warn("Failed to save tile at {}, {}", tileX, tileY, e);
+			}
+		}));
+		write.whenComplete((result, e) -> pendingWrites.remove(key, write));
+	}
+
+	private void awaitWrite(int tileX, int tileY) {
+		var pending = pendingWrites.get(MapColumnCache.pack(tileX, tileY));
+		if (pending != null) {
+			pending.exceptionally(e -> null).join();
+		}
+	}
+
+	private void awaitWrites() {
+		CompletableFuture.allOf(pendingWrites.values().toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+	}
+
+	/**
+	 * Visits the position of every saved tile, only reading the headers of the region files.
+	 */
+	public synchronized void forEachTile(TileConsumer consumer) throws IOException {
+		if (closed) {
+			of(dir).forEachTile(consumer);
+			return;
+		}
+		if (!Files.exists(dir)) {
+			return;
+		}
+		try (var files = Files.list(dir)) {
+			for (var file : (Iterable<Path>) files::iterator) {
+				var name = file.getFileName().toString();
+				if (!name.endsWith(FILE_EXTENSION)) {
+					continue;
+				}
+				var coords = name.substring(0, name.length() - FILE_EXTENSION.length()).split("_");
+				int regionX = Integer.parseInt(coords[0]);
+				int regionY = Integer.parseInt(coords[1]);
+				Region region;
+				try {
+					region = region(regionX, regionY, false);
+				} catch (IOException e) {
+					log.warn("Skipping unreadable world map region {}", file, e);
+					continue;
+				}
+				for (int index = 0; index < TILES; index++) {
+					if (region.lengths[index] > 0) {
+						consumer.accept((regionX << TileIndex.REGION_SHIFT) + index % TileIndex.REGION_SIZE, (regionY << TileIndex.REGION_SHIFT) + index / TileIndex.REGION_SIZE);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the open region files in which at least a fifth of the space is no longer used,
+	 * once the pending writes finished.
+	 */
+	public void compact() throws IOException {
+		awaitWrites();
+		synchronized (this) {
+			for (var region : regions.values()) {
+				long used = region.used();
+				if ((region.end - HEADER_BYTES - used) * 4 > used) {
+					region.compact();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for the pending writes and closes all open region files. The directory gets a new storage the next time it is used.
+	 */
+	public void close() throws IOException {
+		// writes still running in the background would open the regions again
+		awaitWrites();
+		synchronized (this) {
+			closed = true;
+			STORAGES.remove(dir, this);
+			IOException failure = null;
+			for (var region : regions.values()) {
+				try {
+					region.channel.close();
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			regions.clear();
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			int read = channel.read(buf, position);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			position += read;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			position += channel.write(buf, position);
+		}
+	}
+
+	@FunctionalInterface
+	public interface TileConsumer {
+		void accept(int tileX, int tileY);
+	}
+
+	@FunctionalInterface
+	private interface Change {
+		void apply() throws IOException;
+	}
+
+	private static class Region {
+		private final Path file;
+		private final int[] offsets = new int[TILES], lengths = new int[TILES];
+		private FileChannel channel;
+		private long end;
+
+		private Region(Path file) throws IOException {
+			this.file = file;
+			open();
+		}
+
+		private void open() throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			var header = ByteBuffer.allocate(HEADER_BYTES);
+			if (channel.size() == 0) {
+				header.putInt(MAGIC).putInt(VERSION).position(HEADER_BYTES).flip();
+				writeFully(channel, header, 0);
+				end = HEADER_BYTES;
+				return;
+			}
+			readFully(channel, header, 0);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				channel.close();
+				throw new IOException("Not a world map region: " + file);
+			}
+			for (int index = 0; index < TILES; index++) {
+				offsets[index] = header.getInt();
+				lengths[index] = header.getInt();
+			}
+			end = channel.size();
+		}
+
+		private ByteBuffer read(int index) throws IOException {
+			if (lengths[index] == 0) {
+				return null;
+			}
+			var buf = ByteBuffer.allocate(lengths[index]);
+			readFully(channel, buf, offsets[index]);
+			return buf.flip();
+		}
+
+		private void write(int index, ByteBuffer data) throws IOException {
+			int length = data.remaining();
+			int offset = length <= lengths[index] ? offsets[index] : (int) end;
+			writeFully(channel, data, offset);
+			end = Math.max(end, offset + length);
+			writeEntry(index, offset, length);
+		}
+
+		private void writeEntry(int index, int offset, int length) throws IOException {
+			offsets[index] = offset;
+			lengths[index] = length;
+			writeFully(channel, ByteBuffer.allocate(8).putInt(offset).putInt(length).flip(), 8 + index * 8L);
+		}
+
+		private void remove(int index) throws IOException {
+			if (lengths[index] > 0) {
+				writeEntry(index, 0, 0);
+			}
+		}
+
+		private long used() {
+			long used = 0;
+			for (int length : lengths) {
+				used += length;
+			}
+			return used;
+		}
+
+		/**
+		 * Writes all tiles back to back into a new file, which then replaces this one.
+		 */
+		private void compact() throws IOException {
+			var temp = file.resolveSibling(file.getFileName() + ".tmp");
+			var header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+			int[] newOffsets = new int[TILES];
+			try (var out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				int position = HEADER_BYTES;
+				for (int index = 0; index < TILES; index++) {
+					var data = read(index);
+					if (data != null) {
+						newOffsets[index] = position;
+						writeFully(out, data, position);
+						position += lengths[index];
+					}
+					header.putInt(newOffsets[index]).putInt(lengths[index]);
+				}
+				writeFully(out, header.flip(), 0);
+			}
+			channel.close();
+			try {
+				try {
+					Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				// whether the old or the new file is in place, the region has to stay usable
+				Files.deleteIfExists(temp);
+				open();
+			}
+		}
+	}
+}
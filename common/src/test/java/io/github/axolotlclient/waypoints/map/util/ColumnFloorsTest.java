@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class ColumnFloorsTest {
+	private static final int COLUMNS = MapColumnCache.ChunkColumns.SIZE * MapColumnCache.ChunkColumns.SIZE;
+
+	@Test
+	void keepsRunsPerColumn() {
+		var builder = new ColumnFloors.Builder();
+		builder.add(100, 90, 1, 0, 0);
+		builder.add(40, -60, 200, 300, 255);
+		builder.endColumn();
+		// an empty column
+		builder.endColumn();
+		builder.add(-2000, -2040, 3, 15, 4);
+		builder.endColumn();
+		for (int index = 3; index < COLUMNS; index++) {
+			builder.endColumn();
+		}
+
+		var floors = builder.build(4, -9);
+
+		assertEquals(4, floors.chunkX());
+		assertEquals(-9, floors.chunkZ());
+		assertEquals(3, floors.size());
+		assertEquals(0, floors.firstRun(0));
+		assertEquals(2, floors.endRun(0));
+		assertEquals(2, floors.firstRun(1));
+		assertEquals(2, floors.endRun(1));
+		assertEquals(2, floors.firstRun(2));
+		assertEquals(3, floors.endRun(2));
+
+		assertEquals(40, floors.top(1));
+		assertEquals(-60, floors.bottom(1));
+		assertEquals(200, floors.colorId(1));
+		// fluid depths are clamped to a byte
+		assertEquals(255, floors.fluidDepth(1));
+		assertEquals(255, floors.floorColorId(1));
+		assertEquals(-2000, floors.top(2));
+		assertEquals(-2040, floors.bottom(2));
+	}
+
+	@Test
+	void findsTheHighestRunReachingDown() {
+		var builder = new ColumnFloors.Builder();
+		builder.add(100, 90, 1, 0, 0);
+		builder.add(40, -60, 2, 0, 0);
+		for (int index = 0; index < COLUMNS; index++) {
+			builder.endColumn();
+		}
+		var floors = builder.build(0, 0);
+
+		assertEquals(0, floors.find(0, 200));
+		assertEquals(0, floors.find(0, 90));
+		assertEquals(1, floors.find(0, 89));
+		assertEquals(1, floors.find(0, -60));
+		assertEquals(-1, floors.find(0, -61));
+		assertEquals(-1, floors.find(1, 200));
+	}
+
+	@Test
+	void startsOverAfterBuilding() {
+		var builder = new ColumnFloors.Builder();
+		for (int index = 0; index < COLUMNS; index++) {
+			// more runs than the builder starts out with
+			for (int run = 0; run < 5; run++) {
+				builder.add(run * -10, run * -10 - 5, run, 0, 0);
+			}
+			builder.endColumn();
+		}
+		var first = builder.build(0, 0);
+		builder.add(7, 7, 7, 7, 7);
+		for (int index = 0; index < COLUMNS; index++) {
+			builder.endColumn();
+		}
+
+		var second = builder.build(1, 1);
+
+		assertEquals(COLUMNS * 5, first.size());
+		assertEquals(-35, first.bottom(first.firstRun(COLUMNS - 1) + 3));
+		assertEquals(1, second.size());
+		assertEquals(1, second.endRun(0));
+		assertEquals(1, second.firstRun(COLUMNS - 1));
+	}
+}
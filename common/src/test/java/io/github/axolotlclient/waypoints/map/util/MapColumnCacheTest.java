@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class MapColumnCacheTest {
+	private static MapColumnCache.ChunkColumns columns(int chunkX, int chunkZ, int caveY, int height) {
+		var columns = new MapColumnCache.ChunkColumns(chunkX, chunkZ, caveY);
+		for (int index = 0; index < 256; index++) {
+			columns.set(index, height, 1, 0, 0);
+		}
+		return columns;
+	}
+
+	@Test
+	void keepsSeveralCaveLevelsOfAChunk() {
+		var cache = new MapColumnCache();
+		var surface = cache.put(columns(2, 3, MapColumnCache.SURFACE, 64));
+		var cave = cache.put(columns(2, 3, 20, 10));
+
+		assertSame(surface, cache.get(2, 3, MapColumnCache.SURFACE));
+		assertSame(cave, cache.get(2, 3, 20));
+		assertNull(cache.get(2, 3, 30));
+	}
+
+	@Test
+	void replacesTheLeastRecentlyUsedLevel() {
+		var cache = new MapColumnCache();
+		var surface = cache.put(columns(0, 0, MapColumnCache.SURFACE, 64));
+		cache.put(columns(0, 0, 20, 10));
+		for (int level = 1; level < MapColumnCache.MAX_LEVELS_PER_CHUNK; level++) {
+			cache.put(columns(0, 0, 20 + level, 10));
+			// the surface stays in use
+			cache.get(0, 0, MapColumnCache.SURFACE);
+		}
+
+		assertSame(surface, cache.get(0, 0, MapColumnCache.SURFACE));
+		assertNull(cache.get(0, 0, 20));
+		var replaced = cache.put(columns(0, 0, 21, 12));
+		assertSame(replaced, cache.get(0, 0, 21));
+	}
+
+	@Test
+	void shadesAgainstTheChunkToTheNorthAtTheSameLevel() {
+		var cache = new MapColumnCache();
+		// lower than the chunk to the south, unlike its columns at the cave level
+		cache.put(columns(0, 0, MapColumnCache.SURFACE, 0));
+		cache.put(columns(0, 0, 20, 10));
+
+		var south = cache.put(columns(0, 1, 20, 5));
+
+		assertEquals(MapColumnCache.BRIGHTNESS_LOW, south.brightness(0));
+	}
+
+	@Test
+	void invalidatesEveryLevel() {
+		var cache = new MapColumnCache();
+		cache.put(columns(0, 0, MapColumnCache.SURFACE, 64));
+		cache.put(columns(0, 0, 20, 10));
+
+		cache.invalidate(0, 0);
+
+		assertNull(cache.get(0, 0, MapColumnCache.SURFACE));
+		assertNull(cache.get(0, 0, 20));
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class MapFramebufferTest {
+	private static List<List<Integer>> dirtyRects(MapFramebuffer framebuffer) {
+		var rects = new ArrayList<List<Integer>>();
+		framebuffer.forEachDirty((x, y, width, height) -> rects.add(List.of(x, y, width, height)));
+		return rects;
+	}
+
+	@Test
+	void copiesOnlyChangedSpans() {
+		var framebuffer = new MapFramebuffer(64, 64);
+		int[] frame = framebuffer.getPixels().clone();
+		frame[5 + 10 * 64] = 1;
+		frame[9 + 10 * 64] = 2;
+		frame[7 + 11 * 64] = 3;
+
+		framebuffer.copyFrom(frame);
+
+		assertArrayEquals(frame, framebuffer.getPixels());
+		assertEquals(List.of(List.of(5, 10, 5, 2)), dirtyRects(framebuffer));
+	}
+
+	@Test
+	void staysCleanWhenNothingChanged() {
+		var framebuffer = new MapFramebuffer(64, 64);
+		framebuffer.fill(7);
+		framebuffer.clearDirty();
+
+		framebuffer.copyFrom(framebuffer.getPixels().clone());
+		framebuffer.set(3, 3, 7);
+
+		assertFalse(framebuffer.isDirty());
+		assertTrue(dirtyRects(framebuffer).isEmpty());
+	}
+
+	@Test
+	void keepsChangesFarApartSeparate() {
+		var framebuffer = new MapFramebuffer(64, 64);
+
+		framebuffer.set(0, 0, 1);
+		framebuffer.set(63, 63, 1);
+
+		assertTrue(framebuffer.isDirty());
+		assertEquals(List.of(List.of(0, 0, 1, 1), List.of(63, 63, 1, 1)), dirtyRects(framebuffer));
+	}
+
+	@Test
+	void joinsColumnStrips() {
+		var framebuffer = new MapFramebuffer(64, 64);
+		int[] frame = framebuffer.getPixels().clone();
+		for (int y = 0; y < 64; y++) {
+			frame[20 + y * 64] = 1;
+			frame[21 + y * 64] = 1;
+		}
+
+		framebuffer.copyFrom(frame);
+
+		assertEquals(List.of(List.of(20, 0, 2, 64)), dirtyRects(framebuffer));
+	}
+
+	@Test
+	void splitsRowsAtCellBorders() {
+		var framebuffer = new MapFramebuffer(64, 64);
+		int[] frame = framebuffer.getPixels().clone();
+		for (int x = 0; x < 64; x++) {
+			frame[x + 30 * 64] = 1;
+		}
+
+		framebuffer.copyFrom(frame);
+
+		assertEquals(List.of(List.of(0, 30, 16, 1), List.of(16, 30, 16, 1), List.of(32, 30, 16, 1), List.of(48, 30, 16, 1)), dirtyRects(framebuffer));
+	}
+
+	@Test
+	void forgetsChangesOnceCleared() {
+		var framebuffer = new MapFramebuffer(64, 64);
+		framebuffer.fill(1);
+
+		framebuffer.clearDirty();
+
+		assertFalse(framebuffer.isDirty());
+		assertTrue(dirtyRects(framebuffer).isEmpty());
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class MapMipmapsTest {
+	@Test
+	void laysOutLevelsBackToBack() {
+		assertEquals(0, MapMipmaps.offset(0));
+		assertEquals(256, MapMipmaps.offset(1));
+		assertEquals(256 + 64, MapMipmaps.offset(2));
+		assertEquals(256 + 64 + 16 + 4, MapMipmaps.LENGTH);
+		assertEquals(2, MapMipmaps.size(MapMipmaps.LEVELS - 1));
+	}
+
+	@Test
+	void averagesEveryChannel() {
+		assertEquals(0xFF804020, MapMipmaps.average(0xFF804020, 0xFF804020, 0xFF804020, 0xFF804020));
+		// rounded to the nearest value
+		assertEquals(0x02010100, MapMipmaps.average(0x01010100, 0x02010100, 0x03010000, 0x02000200));
+		// channels do not carry into each other
+		assertEquals(0x80808080, MapMipmaps.average(0xFFFFFFFF, 0xFFFFFFFF, 0x00000000, 0x00000001));
+	}
+
+	@Test
+	void buildsEveryLevelFromTheOneBelow() {
+		int[] pyramid = new int[MapMipmaps.LENGTH];
+		for (int z = 0; z < 16; z++) {
+			for (int x = 0; x < 16; x++) {
+				// left half black, right half white
+				pyramid[x + z * 16] = x < 8 ? 0xFF000000 : 0xFFFFFFFF;
+			}
+		}
+
+		MapMipmaps.build(pyramid);
+
+		for (int level = 1; level < MapMipmaps.LEVELS; level++) {
+			int size = MapMipmaps.size(level);
+			for (int z = 0; z < size; z++) {
+				for (int x = 0; x < size; x++) {
+					assertEquals(x < size / 2 ? 0xFF000000 : 0xFFFFFFFF, pyramid[MapMipmaps.offset(level) + x + z * size]);
+				}
+			}
+		}
+	}
+
+	@Test
+	void averagesTwoByTwoBlocks() {
+		int[] pyramid = new int[MapMipmaps.LENGTH];
+		Arrays.fill(pyramid, 0, 256, 0xFF000000);
+		// one quarter of the top left block of level 1 is white
+		pyramid[0] = 0xFFFFFFFF;
+
+		MapMipmaps.build(pyramid);
+
+		assertEquals(0xFF404040, pyramid[MapMipmaps.offset(1)]);
+		assertEquals(0xFF000000, pyramid[MapMipmaps.offset(1) + 1]);
+		assertEquals(0xFF101010, pyramid[MapMipmaps.offset(2)]);
+		assertEquals(0xFF040404, pyramid[MapMipmaps.offset(3)]);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class MapRasterizerTest {
+	private static final int WATER = 12;
+	private static final MapRasterizer.Palette PALETTE = new MapRasterizer.Palette() {
+		@Override
+		public int color(int colorId, int brightness) {
+			return colorId << 16 | brightness << 8 | 0x40;
+		}
+
+		@Override
+		public int baseColor(int colorId) {
+			return colorId * 0x010101;
+		}
+
+		@Override
+		public int waterColorId() {
+			return WATER;
+		}
+	};
+
+	private static MapColumnCache.ChunkColumns columns(int colorId) {
+		var columns = new MapColumnCache.ChunkColumns(0, 0, MapColumnCache.SURFACE);
+		for (int index = 0; index < 256; index++) {
+			columns.set(index, 64, colorId, 0, 0);
+		}
+		columns.updateBrightness(null);
+		return columns;
+	}
+
+	@Test
+	void shadesColumnsWithThePalette() {
+		var rasterizer = new MapRasterizer(PALETTE, false);
+
+		int[] colors = rasterizer.shadeChunk(columns(3), null, 1f);
+
+		assertEquals(MapMipmaps.LENGTH, colors.length);
+		// flat ground is drawn at normal brightness
+		assertEquals(0xFF030140, colors[5 + 5 * 16]);
+		assertEquals(0xFF030140, colors[MapMipmaps.LENGTH - 1]);
+	}
+
+	@Test
+	void swapsRedAndBlueForAbgrTextures() {
+		var rasterizer = new MapRasterizer(PALETTE, true);
+
+		int[] colors = rasterizer.shadeChunk(columns(3), null, 1f);
+
+		assertEquals(0xFF400103, colors[5 + 5 * 16]);
+	}
+
+	@Test
+	void tintsWaterWithTheBiomeColor() {
+		var rasterizer = new MapRasterizer(PALETTE, false);
+		var biomes = new ChunkBiomeColors(0, 0);
+		for (int index = 0; index < 256; index++) {
+			biomes.set(index, 0xFF0000, 0, 0);
+		}
+
+		int[] plain = rasterizer.shadeChunk(columns(WATER), null, 1f);
+		int[] tinted = rasterizer.shadeChunk(columns(WATER), biomes, 1f);
+
+		assertNotEquals(plain[0], tinted[0]);
+		assertEquals(0xFF, tinted[0] >>> 24);
+	}
+
+	@Test
+	void reusesColorsUntilTheColumnsChange() {
+		var rasterizer = new MapRasterizer(PALETTE, false);
+		var columns = columns(3);
+
+		int[] colors = rasterizer.chunkColors(columns, null, 1f, false);
+
+		assertSame(colors, rasterizer.chunkColors(columns, null, 1f, false));
+		columns.updateBrightness(null);
+		assertNotEquals(colors, rasterizer.chunkColors(columns, null, 1f, false));
+	}
+
+	@Test
+	void copiesChunksIntoWrappingFramebuffer() {
+		int[] colors = new int[MapMipmaps.LENGTH];
+		for (int index = 0; index < 256; index++) {
+			colors[index] = index;
+		}
+		MapMipmaps.build(colors);
+		var framebuffer = new MapFramebuffer(32, 32);
+
+		// the chunk at x 2 wraps around to the left edge
+		MapRasterizer.copyChunk(colors, 0, 2, 1, 32, 16, 48, 32, framebuffer);
+
+		int[] pixels = framebuffer.getPixels();
+		assertEquals(0, pixels[16 * 32]);
+		assertEquals(15 + 15 * 16, pixels[15 + 31 * 32]);
+		assertEquals(0, pixels[16 + 16 * 32]);
+
+		// at zoom 1 a chunk takes 8x8 pixels from the next mip level
+		MapRasterizer.copyChunk(colors, 1, 0, 0, 0, 0, 8, 8, framebuffer);
+
+		assertEquals(colors[MapMipmaps.offset(1) + 7 + 7 * 8], pixels[7 + 7 * 32]);
+	}
+
+	@Test
+	void clearsMissingChunks() {
+		var framebuffer = new MapFramebuffer(32, 32);
+		framebuffer.fill(5);
+
+		MapRasterizer.copyChunk(null, 0, 0, 0, 0, 0, 16, 16, framebuffer);
+
+		assertEquals(MapRasterizer.EMPTY, framebuffer.getPixels()[15 + 15 * 32]);
+		assertEquals(5, framebuffer.getPixels()[16]);
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class MapWorkSchedulerTest {
+	private final MapWorkScheduler scheduler = new MapWorkScheduler();
+	private final List<Integer> ran = new ArrayList<>();
+
+	@Test
+	void runsJobsClosestToTheFocusFirst() {
+		scheduler.setFocus(100, 100);
+		scheduler.submit(0, 0, () -> ran.add(0));
+		scheduler.submit(96, 96, () -> ran.add(1));
+		scheduler.submitIdle(100, 100, () -> ran.add(2));
+
+		scheduler.tick(Long.MAX_VALUE);
+
+		assertEquals(List.of(1, 0, 2), ran);
+	}
+
+	@Test
+	void dropsQueuedJobsWhenCleared() {
+		scheduler.submit(0, 0, () -> ran.add(0));
+		scheduler.tick(0);
+		scheduler.submit(16, 0, () -> ran.add(1));
+		scheduler.submitIdle(0, 0, () -> ran.add(2));
+		int generation = scheduler.getGeneration();
+
+		scheduler.clear();
+		scheduler.tick(Long.MAX_VALUE);
+
+		assertEquals(List.of(), ran);
+		assertEquals(0, scheduler.getPendingJobs());
+		assertEquals(generation + 1, scheduler.getGeneration());
+	}
+
+	@Test
+	void dropsQueuedJobsOnlyWhenTheLevelChanges() {
+		var level = new Object();
+		scheduler.setLevel(level);
+		scheduler.submit(0, 0, () -> ran.add(0));
+		int generation = scheduler.getGeneration();
+
+		scheduler.setLevel(level);
+		assertEquals(generation, scheduler.getGeneration());
+		scheduler.setLevel(new Object());
+		scheduler.tick(Long.MAX_VALUE);
+
+		assertEquals(List.of(), ran);
+		assertEquals(generation + 1, scheduler.getGeneration());
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class TileDataTest {
+	private static final int COLUMNS = MapColumnCache.ChunkColumns.SIZE * MapColumnCache.ChunkColumns.SIZE;
+
+	private static MapColumnCache.ChunkColumns surface(int chunkX, int chunkZ) {
+		var columns = new MapColumnCache.ChunkColumns(chunkX, chunkZ, MapColumnCache.SURFACE);
+		for (int index = 0; index < COLUMNS; index++) {
+			if (index % 7 == 0) {
+				// left without a block
+				continue;
+			}
+			columns.set(index, -64 + index, index % 62, index % 5, (index * 3) % 62);
+		}
+		columns.updateBrightness(null);
+		return columns;
+	}
+
+	private static ColumnFloors floors(int chunkX, int chunkZ) {
+		var builder = new ColumnFloors.Builder();
+		for (int index = 0; index < COLUMNS; index++) {
+			// a surface run and, in every other column, a cave floor below it
+			builder.add(80, 60, 1, 0, 0);
+			if (index % 2 == 0) {
+				builder.add(30, -20, 11, 3, 7);
+			}
+			builder.endColumn();
+		}
+		return builder.build(chunkX, chunkZ);
+	}
+
+	@Test
+	void roundTripsSurfaceAndFloors() throws IOException {
+		var data = new TileData(-3, 12);
+		data.capture(surface(-3, 12), floors(-3, 12));
+
+		var decoded = TileData.decode(data.encode());
+
+		assertEquals(-3, decoded.chunkX());
+		assertEquals(12, decoded.chunkZ());
+		var expected = data.columns(MapColumnCache.SURFACE);
+		var actual = decoded.columns(MapColumnCache.SURFACE);
+		for (int index = 0; index < COLUMNS; index++) {
+			assertEquals(expected.height(index), actual.height(index));
+			assertEquals(expected.colorId(index), actual.colorId(index));
+			assertEquals(expected.fluidDepth(index), actual.fluidDepth(index));
+			assertEquals(expected.floorColorId(index), actual.floorColorId(index));
+			assertEquals(expected.brightness(index), actual.brightness(index));
+		}
+		assertEquals(data.encode(), decoded.encode());
+	}
+
+	@Test
+	void roundTripsEmptyTile() throws IOException {
+		var data = new TileData(1, 2);
+
+		var decoded = TileData.decode(data.encode());
+
+		assertTrue(decoded.isEmpty());
+		assertNull(decoded.columns(MapColumnCache.SURFACE));
+	}
+
+	@Test
+	void rejectsTruncatedTile() {
+		var data = new TileData(0, 0);
+		data.capture(surface(0, 0), floors(0, 0));
+		var encoded = data.encode();
+
+		var truncated = encoded.slice(0, encoded.remaining() - 1);
+
+		assertThrows(IOException.class, () -> TileData.decode(truncated));
+		assertThrows(IOException.class, () -> TileData.decode(encoded.slice(0, 3)));
+	}
+
+	@Test
+	void rejectsOtherData() {
+		var buf = ByteBuffer.allocate(64).putInt(0, 0x12345678);
+
+		assertThrows(IOException.class, () -> TileData.decode(buf));
+	}
+
+	@Test
+	void derivesCaveColumnsFromFloors() {
+		var data = new TileData(0, 0);
+		data.capture(surface(0, 0), floors(0, 0));
+
+		var columns = data.columns(40);
+
+		// below the surface run, the cave floor is the top block
+		assertEquals(30, columns.height(0));
+		assertEquals(11, columns.colorId(0));
+		assertEquals(3, columns.fluidDepth(0));
+		assertEquals(7, columns.floorColorId(0));
+		// no cave floor in this column
+		assertEquals(MapColumnCache.NO_HEIGHT, columns.height(1));
+		// asking for the same level again does not derive the columns again
+		assertSame(columns, data.columns(40));
+		// the cave level cuts through the floor run, so the block right below it stands in
+		assertEquals(9, data.columns(10).height(0));
+	}
+
+	@Test
+	void shadesTheNorthernEdgeAgainstTheChunkToTheNorth() throws IOException {
+		var flat = new MapColumnCache.ChunkColumns(0, 1, MapColumnCache.SURFACE);
+		var north = new MapColumnCache.ChunkColumns(0, 0, MapColumnCache.SURFACE);
+		var northFloors = new ColumnFloors.Builder();
+		for (int index = 0; index < COLUMNS; index++) {
+			flat.set(index, 64, 1, 0, 0);
+			north.set(index, 70, 1, 0, 0);
+			northFloors.add(90, 60, 1, 0, 0);
+			northFloors.add(50, -20, 1, 0, 0);
+			northFloors.endColumn();
+		}
+		flat.updateBrightness(null);
+		var data = new TileData(0, 1);
+		data.capture(flat, floors(0, 1));
+		assertEquals(MapColumnCache.BRIGHTNESS_NORMAL, data.columns(40).brightness(0));
+
+		data.captureNorthEdge(north, northFloors.build(0, 0));
+		var decoded = TileData.decode(data.encode());
+
+		// the chunk to the north is higher up, so the northern edge is in its shadow
+		assertEquals(MapColumnCache.BRIGHTNESS_LOW, data.columns(MapColumnCache.SURFACE).brightness(0));
+		assertEquals(MapColumnCache.BRIGHTNESS_LOW, decoded.columns(MapColumnCache.SURFACE).brightness(0));
+		assertEquals(MapColumnCache.BRIGHTNESS_LOW, decoded.columns(40).brightness(0));
+		assertEquals(MapColumnCache.BRIGHTNESS_NORMAL, decoded.columns(40).brightness(MapColumnCache.ChunkColumns.SIZE));
+		assertEquals(data.encode(), decoded.encode());
+	}
+
+	@Test
+	void keepsSurfaceWhenCapturingCaveColumns() {
+		var data = new TileData(0, 0);
+		var surface = surface(0, 0);
+		data.capture(surface, null);
+
+		data.capture(new MapColumnCache.ChunkColumns(0, 0, 40), floors(0, 0));
+
+		assertSame(surface, data.columns(MapColumnCache.SURFACE));
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class TileIndexTest {
+	@Test
+	void storesTilesByPosition() {
+		var index = new TileIndex<String>();
+
+		assertNull(index.put(0, 0, "a"));
+		assertNull(index.put(-1, -1, "b"));
+		assertNull(index.put(TileIndex.REGION_SIZE, -TileIndex.REGION_SIZE * 3, "c"));
+		assertEquals("a", index.put(0, 0, "d"));
+
+		assertEquals("d", index.get(0, 0));
+		assertEquals("b", index.get(-1, -1));
+		assertEquals("c", index.get(TileIndex.REGION_SIZE, -TileIndex.REGION_SIZE * 3));
+		assertNull(index.get(1, 0));
+		assertNull(index.get(1000, 1000));
+		assertEquals(3, index.size());
+	}
+
+	@Test
+	void keepsTheFirstTilePutIfAbsent() {
+		var index = new TileIndex<String>();
+
+		assertNull(index.putIfAbsent(5, 5, "a"));
+		assertEquals("a", index.putIfAbsent(5, 5, "b"));
+
+		assertEquals("a", index.get(5, 5));
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	void visitsOnlyTilesInRange() {
+		var index = new TileIndex<Long>();
+		for (int x = -100; x <= 100; x += 3) {
+			for (int y = -100; y <= 100; y += 7) {
+				index.put(x, y, MapColumnCache.pack(x, y));
+			}
+		}
+
+		// a small range looks up each region in it, one larger than everything present filters the present regions
+		for (int[] range : new int[][]{{-10, -20, 40, 5}, {-100000, -100000, 100000, 50}}) {
+			var expected = new HashSet<Long>();
+			index.forEach(key -> {
+				int x = (int) (long) key, y = (int) (key >>> 32);
+				if (x >= range[0] && y >= range[1] && x <= range[2] && y <= range[3]) {
+					expected.add(key);
+				}
+			});
+			var visited = new ArrayList<Long>();
+			index.forEachInRange(range[0], range[1], range[2], range[3], visited::add);
+
+			assertEquals(expected, Set.copyOf(visited));
+			assertEquals(expected.size(), visited.size());
+		}
+	}
+
+	@Test
+	void clearsAllTiles() {
+		var index = new TileIndex<String>();
+		index.put(1, 2, "a");
+		index.put(100, 200, "b");
+
+		index.clear();
+
+		assertTrue(index.isEmpty());
+		assertNull(index.get(1, 2));
+		List<String> visited = new ArrayList<>();
+		index.forEach(visited::add);
+		assertTrue(visited.isEmpty());
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TileLodTest {
+	private static final int TILE_SIZE = 16;
+
+	@TempDir
+	Path dir;
+	private final TileAtlas<Integer> atlas = new TileAtlas<>(TILE_SIZE, index -> index);
+	private final TileMemoryBudget budget = new TileMemoryBudget();
+	private final Map<Long, Integer> chunkTiles = new HashMap<>();
+	private final List<Long> chunkTileReads = new ArrayList<>();
+
+	private TileLod createLod() {
+		return new TileLod(atlas, budget, (tileX, tileY) -> {
+			chunkTileReads.add(MapColumnCache.pack(tileX, tileY));
+			var color = chunkTiles.get(MapColumnCache.pack(tileX, tileY));
+			if (color == null) {
+				return CompletableFuture.completedFuture(null);
+			}
+			int[] colors = new int[TILE_SIZE * TILE_SIZE];
+			Arrays.fill(colors, color);
+			return CompletableFuture.completedFuture(colors);
+		});
+	}
+
+	/**
+	 * Adds chunk tiles in {@code [0, size)} on both axes, each of its own color.
+	 */
+	private void addChunkTiles(TileLod lod, int size) {
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				chunkTiles.put(MapColumnCache.pack(x, y), 0xFF000000 | x << 8 | y);
+				lod.register(x, y);
+			}
+		}
+	}
+
+	private static List<TileLod.LodTile> draw(TileLod lod, int level, int size, long frame) {
+		var drawn = new ArrayList<TileLod.LodTile>();
+		lod.forEachInRange(level, 0, 0, size - 1, size - 1, frame, drawn::add);
+		return drawn;
+	}
+
+	private int[] pixels(TileLod.LodTile tile) {
+		int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+		assertTrue(atlas.read(tile.slot(), pixels));
+		return pixels;
+	}
+
+	@Test
+	void picksTheFinestLevelCoveringAPixel() {
+		assertEquals(0, TileLod.level(1f));
+		assertEquals(0, TileLod.level(4f));
+		assertEquals(1, TileLod.level(0.5f));
+		assertEquals(2, TileLod.level(0.3f));
+		assertEquals(TileLod.MAX_LEVEL, TileLod.level(0.001f));
+	}
+
+	@Test
+	void buildsDrawnTilesFromTheirChildren() {
+		var lod = createLod();
+		addChunkTiles(lod, 2);
+		lod.reset(null);
+
+		// not built yet, so only requested
+		assertTrue(draw(lod, 1, 2, 1).isEmpty());
+		lod.update(Long.MAX_VALUE);
+		var drawn = draw(lod, 1, 2, 2);
+
+		assertEquals(1, drawn.size());
+		var tile = drawn.get(0);
+		assertEquals(0, tile.x());
+		assertEquals(TILE_SIZE * 2, tile.size());
+		int[] pixels = pixels(tile);
+		assertEquals(chunkTiles.get(MapColumnCache.pack(0, 0)), pixels[3 + 3 * TILE_SIZE]);
+		assertEquals(chunkTiles.get(MapColumnCache.pack(1, 0)), pixels[12 + 3 * TILE_SIZE]);
+		assertEquals(chunkTiles.get(MapColumnCache.pack(0, 1)), pixels[3 + 12 * TILE_SIZE]);
+		assertEquals(chunkTiles.get(MapColumnCache.pack(1, 1)), pixels[12 + 12 * TILE_SIZE]);
+	}
+
+	@Test
+	void waitsForChunkTilesReadInTheBackground() {
+		var reads = new ArrayList<CompletableFuture<int[]>>();
+		var lod = new TileLod(atlas, budget, (tileX, tileY) -> {
+			var read = new CompletableFuture<int[]>();
+			reads.add(read);
+			return read;
+		});
+		addChunkTiles(lod, 2);
+		lod.reset(null);
+		draw(lod, 1, 2, 1);
+
+		lod.update(Long.MAX_VALUE);
+		lod.update(Long.MAX_VALUE);
+
+		// read once, not again while waiting
+		assertEquals(4, reads.size());
+		assertTrue(draw(lod, 1, 2, 2).isEmpty());
+		int[] colors = new int[TILE_SIZE * TILE_SIZE];
+		Arrays.fill(colors, 0xFF123456);
+		for (var read : reads) {
+			read.complete(colors);
+		}
+		lod.update(Long.MAX_VALUE);
+		var drawn = draw(lod, 1, 2, 3);
+		assertEquals(1, drawn.size());
+		assertEquals(0xFF123456, pixels(drawn.get(0))[0]);
+	}
+
+	@Test
+	void keepsOnlyDrawnTilesInMemory() {
+		var lod = createLod();
+		addChunkTiles(lod, 4);
+		lod.reset(dir);
+
+		draw(lod, 2, 4, 1);
+		lod.update(Long.MAX_VALUE);
+
+		assertEquals(1, draw(lod, 2, 4, 2).size());
+		// every chunk tile was read once, and the tiles in between were saved instead of kept
+		assertEquals(16, chunkTileReads.size());
+		assertTrue(draw(lod, 1, 4, 2).isEmpty());
+		assertEquals(chunkTiles.get(MapColumnCache.pack(3, 3)), pixels(draw(lod, 2, 4, 3).get(0))[15 + 15 * TILE_SIZE]);
+		lod.clear();
+	}
+
+	@Test
+	void readsSavedTilesBack() {
+		var lod = createLod();
+		addChunkTiles(lod, 4);
+		lod.reset(dir);
+		draw(lod, 2, 4, 1);
+		lod.update(Long.MAX_VALUE);
+		int[] built = pixels(draw(lod, 2, 4, 2).get(0));
+		lod.clear();
+		chunkTiles.clear();
+		chunkTileReads.clear();
+
+		var reopened = createLod();
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				reopened.register(x, y);
+			}
+		}
+		reopened.reset(dir);
+		draw(reopened, 2, 4, 1);
+		reopened.update(Long.MAX_VALUE);
+
+		assertTrue(chunkTileReads.isEmpty());
+		assertEquals(Arrays.toString(built), Arrays.toString(pixels(draw(reopened, 2, 4, 2).get(0))));
+		reopened.clear();
+	}
+
+	@Test
+	void forgetsSavedTilesCoveringAChangedChunkTile() throws IOException {
+		var lod = createLod();
+		addChunkTiles(lod, 4);
+		lod.reset(dir);
+		draw(lod, 2, 4, 1);
+		lod.update(Long.MAX_VALUE);
+		lod.clear();
+
+		TileLod.invalidate(dir, 0, 0);
+
+		assertFalse(TileRegionStorage.of(dir.resolve("lod1")).contains(0, 0));
+		assertFalse(TileRegionStorage.of(dir.resolve("lod2")).contains(0, 0));
+		assertTrue(TileRegionStorage.of(dir.resolve("lod1")).contains(1, 1));
+		TileRegionStorage.closeAll();
+	}
+
+	@Test
+	void evictsTilesNoLongerDrawn() {
+		var lod = createLod();
+		addChunkTiles(lod, 2);
+		lod.reset(null);
+		draw(lod, 1, 2, 1);
+		lod.update(Long.MAX_VALUE);
+		assertEquals(1, draw(lod, 1, 2, 2).size());
+
+		// drawn in this frame
+		budget.enforce(0, 2);
+		assertEquals(1, draw(lod, 1, 2, 3).size());
+
+		budget.enforce(0, 4);
+		chunkTileReads.clear();
+
+		assertTrue(draw(lod, 1, 2, 5).isEmpty());
+		lod.update(Long.MAX_VALUE);
+		// kept in memory only, so it is built again
+		assertEquals(4, chunkTileReads.size());
+		assertEquals(1, draw(lod, 1, 2, 6).size());
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright © 2025 moehreag <moehreag@gmail.com> & Contributors
+ *
+ * This file is part of AxolotlClient (Waypoints Mod).
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * For more information, see the LICENSE file.
+ */
+
+package io.github.axolotlclient.waypoints.map.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TileRegionStorageTest {
+	@TempDir
+	Path dir;
+	private TileRegionStorage storage;
+
+	@BeforeEach
+	void open() {
+		storage = TileRegionStorage.of(dir);
+	}
+
+	@AfterEach
+	void close() throws IOException {
+		TileRegionStorage.of(dir).close();
+	}
+
+	private static ByteBuffer data(int length, int seed) {
+		var buf = ByteBuffer.allocate(length);
+		for (int i = 0; i < length; i++) {
+			buf.put((byte) (i * 31 + seed));
+		}
+		return buf.flip();
+	}
+
+	private long regionSize(int regionX, int regionY) throws IOException {
+		return Files.size(dir.resolve(regionX + "_" + regionY + TileRegionStorage.FILE_EXTENSION));
+	}
+
+	@Test
+	void readsWhatWasWritten() throws IOException {
+		storage.write(3, -5, data(100, 1));
+		storage.write(-40, 70, data(10, 2));
+
+		assertEquals(data(100, 1), storage.read(3, -5));
+		assertEquals(data(10, 2), storage.read(-40, 70));
+		assertTrue(storage.contains(3, -5));
+		assertFalse(storage.contains(4, -5));
+		assertNull(storage.read(4, -5));
+		// a region that was never written to
+		assertNull(storage.read(1000, 1000));
+	}
+
+	@Test
+	void overwritesInPlaceWhenTheTileStillFits() throws IOException {
+		storage.write(0, 0, data(100, 1));
+		long size = regionSize(0, 0);
+
+		storage.write(0, 0, data(60, 2));
+
+		assertEquals(size, regionSize(0, 0));
+		assertEquals(data(60, 2), storage.read(0, 0));
+	}
+
+	@Test
+	void appendsTilesThatGrew() throws IOException {
+		storage.write(0, 0, data(60, 1));
+		storage.write(1, 0, data(60, 2));
+		long size = regionSize(0, 0);
+
+		storage.write(0, 0, data(100, 3));
+
+		assertEquals(size + 100, regionSize(0, 0));
+		assertEquals(data(100, 3), storage.read(0, 0));
+		assertEquals(data(60, 2), storage.read(1, 0));
+	}
+
+	@Test
+	void compactsUnusedSpace() throws IOException {
+		for (int tile = 0; tile < 4; tile++) {
+			storage.write(tile, 0, data(100, tile));
+		}
+		long size = regionSize(0, 0);
+		storage.write(0, 0, data(200, 10));
+		storage.write(1, 0, data(200, 11));
+		storage.remove(2, 0);
+
+		storage.compact();
+
+		assertEquals(size + 100, regionSize(0, 0));
+		assertEquals(data(200, 10), storage.read(0, 0));
+		assertEquals(data(200, 11), storage.read(1, 0));
+		assertNull(storage.read(2, 0));
+		assertEquals(data(100, 3), storage.read(3, 0));
+	}
+
+	@Test
+	void keepsTilesAcrossReopening() throws IOException {
+		storage.write(5, 6, data(50, 1));
+		storage.close();
+
+		var reopened = TileRegionStorage.of(dir);
+
+		assertEquals(data(50, 1), reopened.read(5, 6));
+		// a closed storage forwards to the new one
+		assertEquals(data(50, 1), storage.read(5, 6));
+	}
+
+	@Test
+	void visitsEverySavedTile() throws IOException {
+		var expected = Set.of(MapColumnCache.pack(0, 0), MapColumnCache.pack(31, 31), MapColumnCache.pack(32, 0), MapColumnCache.pack(-1, -33));
+		for (long key : expected) {
+			storage.write((int) key, (int) (key >>> 32), data(8, 0));
+		}
+		storage.remove(31, 31);
+
+		var visited = new HashSet<Long>();
+		storage.forEachTile((x, y) -> visited.add(MapColumnCache.pack(x, y)));
+
+		assertEquals(Set.of(MapColumnCache.pack(0, 0), MapColumnCache.pack(32, 0), MapColumnCache.pack(-1, -33)), visited);
+	}
+
+	@Test
+	void readsWaitForPendingWrites() throws IOException {
+		for (int i = 0; i < 20; i++) {
+			storage.writeAsync(7, 7, data(100 + i, i));
+		}
+
+		assertEquals(data(119, 19), storage.read(7, 7));
+	}
+
+	@Test
+	void removesAfterPendingWrites() throws IOException {
+		storage.write(8, 8, data(10, 1));
+		storage.writeAsync(7, 7, data(100, 1));
+		storage.removeAsync(7, 7);
+		storage.removeAsync(8, 8);
+
+		assertFalse(storage.contains(7, 7));
+		assertNull(storage.read(8, 8));
+	}
+
+	@Test
+	void ignoresFilesOfOtherFormats() throws IOException {
+		Files.writeString(dir.resolve("0_0" + TileRegionStorage.FILE_EXTENSION), "not a region");
+
+		var visited = new HashSet<Long>();
+		storage.forEachTile((x, y) -> visited.add(MapColumnCache.pack(x, y)));
+
+		assertTrue(visited.isEmpty());
+	}
+}